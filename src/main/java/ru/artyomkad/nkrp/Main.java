@@ -1,23 +1,42 @@
 package ru.artyomkad.nkrp;
 
+import com.vk.api.sdk.client.TransportClient;
+import com.vk.api.sdk.httpclient.HttpTransportClient;
 import io.github.cdimascio.dotenv.Dotenv;
-import java.util.Timer;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.util.List;
 
 import org.telegram.telegrambots.bots.DefaultBotOptions;
 import org.telegram.telegrambots.meta.TelegramBotsApi;
 import org.telegram.telegrambots.updatesreceivers.DefaultBotSession;
+import ru.artyomkad.nkrp.bot.ChatStateStore;
+import ru.artyomkad.nkrp.bot.PooledVkTransport;
 import ru.artyomkad.nkrp.bot.TelegramBot;
+import ru.artyomkad.nkrp.bot.TelegramWebhookServer;
+import ru.artyomkad.nkrp.bot.UpdateDispatcher;
 import ru.artyomkad.nkrp.bot.VKCollegeBot;
 import ru.artyomkad.nkrp.service.BellParser;
+import ru.artyomkad.nkrp.service.CanteenMenuService;
 import ru.artyomkad.nkrp.service.DatabaseService;
+import ru.artyomkad.nkrp.service.DigestService;
+import ru.artyomkad.nkrp.service.ReminderService;
 import ru.artyomkad.nkrp.service.ScheduleParser;
 import ru.artyomkad.nkrp.service.ScheduleUpdater;
+import ru.artyomkad.nkrp.service.SiteFetcher;
+import ru.artyomkad.nkrp.service.StartupTimer;
+import ru.artyomkad.nkrp.service.UpdateScheduler;
 
 public class Main {
 
     public static void main(String[] args) {
         Dotenv dotenv = Dotenv.load();
         String dbName = dotenv.get("DB_NAME");
+        int responseCacheSize = Integer.parseInt(dotenv.get("RESPONSE_CACHE_SIZE", "2000"));
+        // Пустое значение отключает снимок, тогда индекс при старте собирается из SQLite
+        String snapshotFile = dotenv.get("SNAPSHOT_PATH", dbName + ".snapshot");
 
         String url = dotenv.get("SCHEDULE_URL");
         String bellUrl = dotenv.get("BELL_URL");
@@ -31,15 +50,64 @@ public class Main {
         String vkToken = dotenv.get("VK_TOKEN");
         long vkCreatorId = Long.parseLong(dotenv.get("VK_CREATOR_ID", "0"));
 
+        long quietPeriodMs = Long.parseLong(dotenv.get("UPDATE_QUIET_PERIOD_MS", "300000"));
+        long maxHoldMs = Long.parseLong(dotenv.get("UPDATE_MAX_HOLD_MS", "900000"));
+
+        ZoneId zone = ZoneId.of(dotenv.get("TIMEZONE", "Europe/Moscow"));
+        double reminderRate = Double.parseDouble(dotenv.get("REMINDER_RATE_PER_SEC", "20"));
+        DigestService.Settings digestSettings = new DigestService.Settings(
+                LocalTime.parse(dotenv.get("DIGEST_TIME", "19:00")),
+                Long.parseLong(dotenv.get("DIGEST_PRERENDER_LEAD_MS", "1800000")),
+                Long.parseLong(dotenv.get("DIGEST_WINDOW_MS", "600000")),
+                Double.parseDouble(dotenv.get("DIGEST_RATE_PER_SEC", "20")),
+                zone
+        );
+        String[] fastHours = dotenv.get("POLL_FAST_HOURS", "7-17").split("-");
+        UpdateScheduler.Settings pollSettings = new UpdateScheduler.Settings(
+                Long.parseLong(dotenv.get("POLL_FAST_MS", "60000")),
+                Long.parseLong(dotenv.get("POLL_BASE_MS", "180000")),
+                Long.parseLong(dotenv.get("POLL_MAX_MS", "1800000")),
+                Long.parseLong(dotenv.get("POLL_RECENT_CHANGE_MS", "1800000")),
+                Integer.parseInt(fastHours[0].trim()),
+                Integer.parseInt(fastHours[1].trim()),
+                Double.parseDouble(dotenv.get("POLL_JITTER", "0.1")),
+                Long.parseLong(dotenv.get("BELL_REFRESH_MS", "21600000")),
+                zone
+        );
+
         try {
-            DatabaseService dbService = new DatabaseService(dbName);
-            ScheduleParser parser = new ScheduleParser(url);
-            BellParser bellParser = new BellParser(bellUrl);
+            DatabaseService dbService = new DatabaseService(dbName, responseCacheSize, zone,
+                    Long.parseLong(dotenv.get("USER_LOG_FLUSH_MS", "5000")),
+                    Integer.parseInt(dotenv.get("USER_LOG_BATCH", "500")),
+                    snapshotFile.isBlank() ? null : Path.of(snapshotFile));
+            StartupTimer.ready("Schedule data");
+            SiteFetcher siteFetcher = new SiteFetcher(new SiteFetcher.Settings(
+                    Duration.ofMillis(Long.parseLong(dotenv.get("SITE_CONNECT_TIMEOUT_MS", "10000"))),
+                    Duration.ofMillis(Long.parseLong(dotenv.get("SITE_TIMEOUT_MS", "30000"))),
+                    Integer.parseInt(dotenv.get("SITE_BREAKER_FAILURES", "3")),
+                    Long.parseLong(dotenv.get("SITE_BREAKER_OPEN_MS", "60000")),
+                    Long.parseLong(dotenv.get("SITE_BREAKER_MAX_OPEN_MS", "900000"))
+            ));
+            ScheduleParser parser = new ScheduleParser(url, siteFetcher);
+            BellParser bellParser = new BellParser(bellUrl, siteFetcher);
+
+            UpdateDispatcher dispatcher = new UpdateDispatcher();
+            CanteenMenuService canteen = new CanteenMenuService(
+                    dotenv.get("CANTEEN_MENU_URL", "https://www.novkrp.ru/data/covid_pit.pdf"),
+                    siteFetcher,
+                    Long.parseLong(dotenv.get("CANTEEN_REFRESH_MS", "1800000"))
+            );
+            canteen.start();
 
-            System.out.println("Loading bells...");
-            dbService.updateBells(bellParser.parse());
+            int stateMaxSize = Integer.parseInt(dotenv.get("STATE_MAX_SIZE", "50000"));
+            long stateTtlMs = Long.parseLong(dotenv.get("STATE_TTL_MS", "86400000"));
+            long stateFlushMs = Long.parseLong(dotenv.get("STATE_FLUSH_MS", "5000"));
+            ChatStateStore tgStates = new ChatStateStore(DatabaseService.Platform.Telegram, dbService, stateMaxSize, stateTtlMs, stateFlushMs);
+            ChatStateStore vkStates = new ChatStateStore(DatabaseService.Platform.VKontakte, dbService, stateMaxSize, stateTtlMs, stateFlushMs);
 
             DefaultBotOptions botOptions = new DefaultBotOptions();
+            // chat_member нужен, чтобы сбрасывать кэш админов групповых чатов
+            botOptions.setAllowedUpdates(List.of("message", "chat_member", "my_chat_member"));
             String proxyHost = dotenv.get("TG_PROXY_HOST");
             if (proxyHost != null && !proxyHost.isBlank()) {
                 int proxyPort = Integer.parseInt(dotenv.get("TG_PROXY_PORT", "1080"));
@@ -54,43 +122,97 @@ public class Main {
                     tgBotToken,
                     tgBotName,
                     tgCreatorId,
-                    dbService
-            );
-            TelegramBotsApi botsApi = new TelegramBotsApi(
-                    DefaultBotSession.class
+                    dbService,
+                    dispatcher,
+                    tgStates,
+                    Long.parseLong(dotenv.get("TG_ADMIN_CACHE_TTL_MS", "600000")),
+                    canteen
             );
-            botsApi.registerBot(tgBot);
-            System.out.println("Telegram Bot started!");
+            TelegramWebhookServer webhook = null;
+            String webhookUrl = optional(dotenv, "TG_WEBHOOK_URL");
+            String webhookPort = optional(dotenv, "TG_WEBHOOK_PORT");
+            if (webhookUrl != null || webhookPort != null) {
+                // Без TG_WEBHOOK_URL сервер только слушает порт: так его можно гонять локально, отправляя записанные апдейты
+                webhook = new TelegramWebhookServer(tgBot, new TelegramWebhookServer.Settings(
+                        webhookUrl,
+                        Integer.parseInt(webhookPort == null ? "8443" : webhookPort),
+                        dotenv.get("TG_WEBHOOK_PATH", "/tg-webhook"),
+                        optional(dotenv, "TG_WEBHOOK_SECRET"),
+                        optional(dotenv, "TG_WEBHOOK_KEYSTORE"),
+                        optional(dotenv, "TG_WEBHOOK_KEYSTORE_PASSWORD"),
+                        Integer.parseInt(dotenv.get("TG_WEBHOOK_THREADS", "8"))
+                ));
+                webhook.start();
+                System.out.println("Telegram Bot started (webhook)!");
+            } else {
+                TelegramBotsApi botsApi = new TelegramBotsApi(
+                        DefaultBotSession.class
+                );
+                botsApi.registerBot(tgBot);
+                System.out.println("Telegram Bot started!");
+            }
+
+            TransportClient vkTransport = HttpTransportClient.getInstance();
+            if (Boolean.parseBoolean(dotenv.get("VK_HTTP_POOLED", "true"))) {
+                vkTransport = new PooledVkTransport(new PooledVkTransport.Settings(
+                        Integer.parseInt(dotenv.get("VK_HTTP_PER_HOST", "8")),
+                        Duration.ofMillis(Long.parseLong(dotenv.get("VK_HTTP_CONNECT_TIMEOUT_MS", "5000"))),
+                        Duration.ofMillis(Long.parseLong(dotenv.get("VK_HTTP_TIMEOUT_MS", "35000")))
+                ));
+            }
 
             VKCollegeBot vkBot = new VKCollegeBot(
                     vkGroupId,
                     vkToken,
                     vkCreatorId,
-                    dbService
+                    dbService,
+                    dispatcher,
+                    vkStates,
+                    canteen,
+                    vkTransport
             );
 
             vkBot.start();
 
             System.out.println("VK Bot started!");
+            StartupTimer.ready("Bots");
+
+            ReminderService reminders = new ReminderService(dbService, tgBot, vkBot, zone, reminderRate);
+            reminders.start();
+
+            DigestService digest = new DigestService(dbService, tgBot, vkBot, digestSettings);
+            digest.start();
 
-            Timer timer = new Timer();
-            timer.schedule(
+            UpdateScheduler scheduler = new UpdateScheduler(
                     new ScheduleUpdater(
                             parser,
                             bellParser,
                             dbService,
                             tgBot,
-                            vkBot
+                            vkBot,
+                            reminders,
+                            quietPeriodMs,
+                            maxHoldMs
                     ),
-                    0,
-                    180000
+                    pollSettings
             );
+            // Сайт опрашивается в фоне: до первого удачного обновления звонки и расписание отдаются из базы
+            scheduler.start();
 
+            TelegramWebhookServer tgWebhook = webhook;
             Runtime.getRuntime().addShutdownHook(
                     new Thread(() -> {
                         try {
                             System.out.println("Shutting down...");
+                            scheduler.close();
+                            if (tgWebhook != null) tgWebhook.close();
+                            reminders.close();
+                            digest.close();
                             vkBot.interrupt();
+                            dispatcher.close();
+                            canteen.close();
+                            tgStates.close();
+                            vkStates.close();
                             dbService.close();
                         } catch (Exception e) {
                             e.printStackTrace();
@@ -101,4 +223,9 @@ public class Main {
             e.printStackTrace();
         }
     }
+
+    private static String optional(Dotenv dotenv, String key) {
+        String value = dotenv.get(key);
+        return value == null || value.isBlank() ? null : value.trim();
+    }
 }
\ No newline at end of file
@@ -0,0 +1,11 @@
+package ru.artyomkad.nkrp.bot;
+
+// Шаги диалога, общие для обоих ботов. Порядковый номер хранится в базе — новые значения добавлять только в конец.
+public enum BotState {
+    DEFAULT,
+    WAITING_FOR_SUB_GROUP,
+    WAITING_FOR_SUB_TEACHER,
+    WAITING_SEARCH_GROUP,
+    WAITING_SEARCH_TEACHER,
+    WAITING_SEARCH_ROOM
+}
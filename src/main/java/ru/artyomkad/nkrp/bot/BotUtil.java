@@ -1,13 +1,11 @@
 package ru.artyomkad.nkrp.bot;
 
+import ru.artyomkad.nkrp.service.DatabaseService;
+
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.io.InputStream;
-import java.net.URL;
-import java.net.URLConnection;
-import java.nio.file.Files;
-import java.nio.file.StandardCopyOption;
+import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -30,20 +28,37 @@ public class BotUtil {
         return new ParsedArg(text, date);
     }
 
-    private static final String MENU_URL = "https://www.novkrp.ru/data/covid_pit.pdf";
+    // "on"/"вкл" -> true, "off"/"выкл" -> false, иначе null
+    public static Boolean parseOnOff(String raw) {
+        String arg = raw == null ? "" : raw.trim().toLowerCase();
+        return switch (arg) {
+            case "on", "вкл" -> true;
+            case "off", "выкл" -> false;
+            default -> null;
+        };
+    }
 
-    public static InputStream downloadAsStream() throws IOException {
-        URLConnection connection = new URL(MENU_URL).openConnection();
-        connection.setUseCaches(false);
-        return connection.getInputStream(); 
+    public static String formatSubscriptions(List<DatabaseService.Subscription> subs) {
+        if (subs.isEmpty()) return "В этом треде нет активной подписки.";
+        StringBuilder sb = new StringBuilder("🔔 Подписки:\n");
+        for (DatabaseService.Subscription sub : subs) {
+            sb.append(sub.subType() == 0 ? "🎓 " : "👨‍🏫 ").append(sub.subValue()).append("\n");
+        }
+        return sb.append("\nОтписаться от одной: /unsub [название]").toString();
     }
 
-    public static File downloadToTempFile() throws IOException {
-        File tempFile = File.createTempFile("canteen_menu", ".pdf");
-        try (InputStream in = downloadAsStream()) {
-            Files.copy(in, tempFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    public static final int MAX_REMIND_MINUTES = 120;
+
+    // "15" -> 15, "off"/"выкл"/"0" -> 0, иначе null
+    public static Integer parseRemindMinutes(String raw) {
+        String arg = raw == null ? "" : raw.trim().toLowerCase();
+        if (arg.equals("off") || arg.equals("выкл")) return 0;
+        try {
+            int minutes = Integer.parseInt(arg);
+            return minutes >= 0 && minutes <= MAX_REMIND_MINUTES ? minutes : null;
+        } catch (NumberFormatException e) {
+            return null;
         }
-        return tempFile;
     }
 
     public static File createTextFile(String content, String prefix) throws IOException {
@@ -0,0 +1,31 @@
+package ru.artyomkad.nkrp.bot;
+
+import java.util.List;
+import java.util.function.Function;
+
+// Клавиатура из списка групп/преподавателей/кабинетов. Списки живут в опубликованном индексе,
+// поэтому пока расписание не переопубликовано, приходит тот же объект и проверка стоит одно сравнение ссылок.
+// После публикации клавиатура пересобирается, только если сам список действительно изменился.
+final class CachedKeyboard<K> {
+
+    private record Built<K>(List<?> source, K keyboard) {}
+
+    private final Function<List<?>, K> builder;
+    private volatile Built<K> built;
+
+    CachedKeyboard(Function<List<?>, K> builder) {
+        this.builder = builder;
+    }
+
+    K get(List<?> source) {
+        Built<K> current = built;
+        if (current != null && current.source() == source) return current.keyboard();
+        if (current != null && current.source().equals(source)) {
+            built = new Built<>(source, current.keyboard());
+            return current.keyboard();
+        }
+        K keyboard = builder.apply(source);
+        built = new Built<>(source, keyboard);
+        return keyboard;
+    }
+}
@@ -0,0 +1,51 @@
+package ru.artyomkad.nkrp.bot;
+
+import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Администраторы групповых чатов: список целиком грузится одним getChatAdministrators и живёт ttlMs
+// или до апдейта chat_member. Проверка прав — поиск в множестве; если пользователь не найден,
+// список один раз перечитывается (не чаще minRefreshMs), чтобы только что назначенный админ не ждал TTL.
+final class ChatAdminCache {
+
+    interface Loader {
+        Set<Long> load(long chatId) throws TelegramApiException;
+    }
+
+    private record Entry(Set<Long> admins, long loadedAt) {}
+
+    private final Loader loader;
+    private final long ttlMs;
+    private final long minRefreshMs;
+    private final Map<Long, Entry> entries = new ConcurrentHashMap<>();
+
+    ChatAdminCache(Loader loader, long ttlMs, long minRefreshMs) {
+        this.loader = loader;
+        this.ttlMs = ttlMs;
+        this.minRefreshMs = minRefreshMs;
+    }
+
+    boolean isAdmin(long chatId, long userId) throws TelegramApiException {
+        long now = System.currentTimeMillis();
+        Entry entry = entries.get(chatId);
+        if (entry == null || now - entry.loadedAt() > ttlMs) {
+            entry = load(chatId, now);
+        } else if (!entry.admins().contains(userId) && now - entry.loadedAt() > minRefreshMs) {
+            entry = load(chatId, now);
+        }
+        return entry.admins().contains(userId);
+    }
+
+    void invalidate(long chatId) {
+        entries.remove(chatId);
+    }
+
+    private Entry load(long chatId, long now) throws TelegramApiException {
+        Entry entry = new Entry(Set.copyOf(loader.load(chatId)), now);
+        entries.put(chatId, entry);
+        return entry;
+    }
+}
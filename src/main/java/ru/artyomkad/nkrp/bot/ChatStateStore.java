@@ -0,0 +1,206 @@
+package ru.artyomkad.nkrp.bot;
+
+import ru.artyomkad.nkrp.service.DatabaseService;
+import ru.artyomkad.nkrp.service.DatabaseService.Platform;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Состояния диалогов одной платформы. DEFAULT не хранится, так что в таблице только чаты посреди сценария.
+// Открытая адресация по chat_id на параллельных массивах: без Long и узлов хеш-таблицы на каждую запись.
+// Запись живёт ttlMs с последней смены состояния; при переполнении выселяются давно не менявшиеся.
+// Изменения копятся и раз в flushMs пачкой пишутся в SQLite, при старте состояния поднимаются из базы.
+public class ChatStateStore implements AutoCloseable {
+    private static final long EMPTY = Long.MIN_VALUE;
+    private static final BotState[] STATES = BotState.values();
+
+    private final Platform platform;
+    private final DatabaseService dbService;
+    private final int maxSize;
+    private final long ttlMs;
+
+    private long[] keys;
+    private byte[] states;
+    private long[] updatedAt;
+    private int size;
+
+    // chat_id -> новое состояние, ещё не записанное в базу
+    private Map<Long, DatabaseService.ChatState> dirty = new HashMap<>();
+
+    private final ScheduledExecutorService flusher;
+
+    // dbService == null или flushMs <= 0 — только в памяти
+    public ChatStateStore(Platform platform, DatabaseService dbService, int maxSize, long ttlMs, long flushMs) {
+        this.platform = platform;
+        this.maxSize = maxSize;
+        this.ttlMs = ttlMs;
+        this.dbService = flushMs > 0 ? dbService : null;
+        allocate(16);
+
+        if (this.dbService == null) {
+            flusher = null;
+            return;
+        }
+        long now = System.currentTimeMillis();
+        for (DatabaseService.ChatState st : this.dbService.loadChatStates(platform, now - ttlMs)) {
+            if (st.state() > 0 && st.state() < STATES.length) insert(st.chatId(), (byte) st.state(), st.updatedAt());
+        }
+        if (size > 0) System.out.println("Restored " + size + " " + platform + " chat states");
+
+        flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "chat-states-" + platform);
+            t.setDaemon(true);
+            return t;
+        });
+        flusher.scheduleWithFixedDelay(this::flush, flushMs, flushMs, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized BotState get(long chatId) {
+        int slot = find(chatId);
+        if (slot < 0) return BotState.DEFAULT;
+        if (System.currentTimeMillis() - updatedAt[slot] > ttlMs) {
+            removeAt(slot);
+            markDirty(chatId, 0, System.currentTimeMillis());
+            return BotState.DEFAULT;
+        }
+        return STATES[states[slot]];
+    }
+
+    public synchronized void put(long chatId, BotState state) {
+        long now = System.currentTimeMillis();
+        int slot = find(chatId);
+        if (state == BotState.DEFAULT) {
+            if (slot < 0) return;
+            removeAt(slot);
+        } else if (slot >= 0) {
+            states[slot] = (byte) state.ordinal();
+            updatedAt[slot] = now;
+        } else {
+            insert(chatId, (byte) state.ordinal(), now);
+            if (size > maxSize) evict(now);
+        }
+        markDirty(chatId, state.ordinal(), now);
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    private void markDirty(long chatId, int state, long now) {
+        if (dbService != null) dirty.put(chatId, new DatabaseService.ChatState(chatId, state, now));
+    }
+
+    private void flush() {
+        List<DatabaseService.ChatState> batch;
+        synchronized (this) {
+            if (dirty.isEmpty()) return;
+            batch = new ArrayList<>(dirty.values());
+            dirty = new HashMap<>();
+        }
+        if (dbService.saveChatStates(platform, batch)) return;
+        // Не записалось — вернём в очередь, если за это время чат не сменил состояние ещё раз
+        synchronized (this) {
+            for (DatabaseService.ChatState st : batch) dirty.putIfAbsent(st.chatId(), st);
+        }
+    }
+
+    // Сначала уходят просроченные; если всё ещё тесно — старшая половина по времени изменения
+    private void evict(long now) {
+        long cutoff = now - ttlMs;
+        rebuild(cutoff);
+        if (size <= maxSize) return;
+        long oldest = now;
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != EMPTY) oldest = Math.min(oldest, updatedAt[i]);
+        }
+        rebuild(oldest + (now - oldest) / 2 + 1);
+    }
+
+    // Пересобирает таблицу без записей старше cutoff; выселенные удаляются и из базы
+    private void rebuild(long cutoff) {
+        long[] oldKeys = keys;
+        byte[] oldStates = states;
+        long[] oldUpdated = updatedAt;
+        allocate(oldKeys.length);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] == EMPTY) continue;
+            if (oldUpdated[i] < cutoff) markDirty(oldKeys[i], 0, cutoff);
+            else insert(oldKeys[i], oldStates[i], oldUpdated[i]);
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        Arrays.fill(keys, EMPTY);
+        states = new byte[capacity];
+        updatedAt = new long[capacity];
+        size = 0;
+    }
+
+    private void insert(long chatId, byte state, long time) {
+        if ((size + 1) * 2 > keys.length) grow();
+        int slot = indexFor(chatId);
+        while (keys[slot] != EMPTY && keys[slot] != chatId) slot = (slot + 1) & (keys.length - 1);
+        if (keys[slot] == EMPTY) size++;
+        keys[slot] = chatId;
+        states[slot] = state;
+        updatedAt[slot] = time;
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        byte[] oldStates = states;
+        long[] oldUpdated = updatedAt;
+        allocate(oldKeys.length * 2);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) insert(oldKeys[i], oldStates[i], oldUpdated[i]);
+        }
+    }
+
+    private int find(long chatId) {
+        int slot = indexFor(chatId);
+        while (keys[slot] != EMPTY) {
+            if (keys[slot] == chatId) return slot;
+            slot = (slot + 1) & (keys.length - 1);
+        }
+        return -1;
+    }
+
+    // Удаление со сдвигом назад, чтобы не оставлять надгробий в цепочках пробирования
+    private void removeAt(int slot) {
+        int mask = keys.length - 1;
+        int hole = slot;
+        int next = (hole + 1) & mask;
+        while (keys[next] != EMPTY) {
+            int home = indexFor(keys[next]);
+            boolean movable = hole <= next ? (home <= hole || home > next) : (home <= hole && home > next);
+            if (movable) {
+                keys[hole] = keys[next];
+                states[hole] = states[next];
+                updatedAt[hole] = updatedAt[next];
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+        keys[hole] = EMPTY;
+        size--;
+    }
+
+    private int indexFor(long chatId) {
+        long h = chatId * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & (keys.length - 1);
+    }
+
+    @Override
+    public void close() {
+        if (flusher == null) return;
+        flusher.shutdown();
+        flush();
+    }
+}
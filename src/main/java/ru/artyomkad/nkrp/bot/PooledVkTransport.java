@@ -0,0 +1,121 @@
+package ru.artyomkad.nkrp.bot;
+
+import com.vk.api.sdk.client.ClientResponse;
+import com.vk.api.sdk.httpclient.HttpTransportClient;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+// Транспорт VK SDK на java.net.http: соединения держатся открытыми и переиспользуются,
+// число одновременных запросов к одному хосту ограничено, таймауты задаются явно.
+// Методы, которые здесь не переопределены, работают через транспорт SDK по умолчанию.
+public class PooledVkTransport extends HttpTransportClient {
+
+    // perHostLimit ограничивает и число одновременно открытых соединений к хосту: простаивающие HttpClient держит сам.
+    // requestTimeout должен быть больше ожидания long poll (25 с)
+    public record Settings(int perHostLimit, Duration connectTimeout, Duration requestTimeout) {}
+
+    private static final String FORM = "application/x-www-form-urlencoded";
+
+    private final Settings settings;
+    private final HttpClient client;
+    private final Map<String, Semaphore> hostLimits = new ConcurrentHashMap<>();
+
+    public PooledVkTransport(Settings settings) {
+        this.settings = settings;
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(settings.connectTimeout())
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .executor(Executors.newVirtualThreadPerTaskExecutor())
+                .build();
+    }
+
+    @Override
+    public ClientResponse get(String url) throws IOException {
+        return send(request(url).GET().build());
+    }
+
+    @Override
+    public ClientResponse get(String url, String contentType) throws IOException {
+        return send(request(url).header("Content-Type", contentType).GET().build());
+    }
+
+    @Override
+    public ClientResponse post(String url) throws IOException {
+        return send(request(url).header("Content-Type", FORM).POST(HttpRequest.BodyPublishers.noBody()).build());
+    }
+
+    @Override
+    public ClientResponse post(String url, String body) throws IOException {
+        return post(url, body, FORM);
+    }
+
+    @Override
+    public ClientResponse post(String url, String body, String contentType) throws IOException {
+        HttpRequest.BodyPublisher publisher = body == null
+                ? HttpRequest.BodyPublishers.noBody()
+                : HttpRequest.BodyPublishers.ofString(body, StandardCharsets.UTF_8);
+        return send(request(url).header("Content-Type", contentType).POST(publisher).build());
+    }
+
+    // Загрузка документа: multipart с полем file, как у транспорта SDK
+    @Override
+    public ClientResponse post(String url, String fileName, File file) throws IOException {
+        String boundary = "----nkrp" + UUID.randomUUID().toString().replace("-", "");
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        body.write(("--" + boundary + "\r\n"
+                + "Content-Disposition: form-data; name=\"" + fileName + "\"; filename=\"" + file.getName() + "\"\r\n"
+                + "Content-Type: application/octet-stream\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+        body.write(Files.readAllBytes(file.toPath()));
+        body.write(("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.UTF_8));
+
+        return send(request(url)
+                .header("Content-Type", "multipart/form-data; boundary=" + boundary)
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body.toByteArray()))
+                .build());
+    }
+
+    private HttpRequest.Builder request(String url) {
+        return HttpRequest.newBuilder(URI.create(url)).timeout(settings.requestTimeout());
+    }
+
+    private ClientResponse send(HttpRequest request) throws IOException {
+        Semaphore limit = hostLimits.computeIfAbsent(request.uri().getHost(), _ -> new Semaphore(settings.perHostLimit()));
+        try {
+            limit.acquire();
+            try {
+                HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
+                return new ClientResponse(response.statusCode(), response.body(), headers(response));
+            } finally {
+                limit.release();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while calling " + request.uri().getHost(), e);
+        }
+    }
+
+    private static Map<String, String> headers(HttpResponse<?> response) {
+        Map<String, String> result = new HashMap<>();
+        for (Map.Entry<String, List<String>> entry : response.headers().map().entrySet()) {
+            if (!entry.getValue().isEmpty()) result.put(entry.getKey(), entry.getValue().getFirst());
+        }
+        return result;
+    }
+}
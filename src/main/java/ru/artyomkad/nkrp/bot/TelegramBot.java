@@ -2,7 +2,7 @@ package ru.artyomkad.nkrp.bot;
 
 import org.telegram.telegrambots.bots.DefaultBotOptions;
 import org.telegram.telegrambots.bots.TelegramLongPollingBot;
-import org.telegram.telegrambots.meta.api.methods.groupadministration.GetChatMember;
+import org.telegram.telegrambots.meta.api.methods.groupadministration.GetChatAdministrators;
 import org.telegram.telegrambots.meta.api.methods.send.SendDocument;
 import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
 import org.telegram.telegrambots.meta.api.objects.InputFile;
@@ -13,19 +13,24 @@ import org.telegram.telegrambots.meta.api.objects.chatmember.ChatMember;
 import org.telegram.telegrambots.meta.api.objects.replykeyboard.ReplyKeyboardMarkup;
 import org.telegram.telegrambots.meta.api.objects.replykeyboard.buttons.KeyboardRow;
 import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
+import ru.artyomkad.nkrp.model.ScheduleRenderer;
+import ru.artyomkad.nkrp.model.ScheduleView;
+import ru.artyomkad.nkrp.service.CanteenMenuService;
 import ru.artyomkad.nkrp.service.DatabaseService;
 import ru.artyomkad.nkrp.service.DatabaseService.Platform;
+import ru.artyomkad.nkrp.service.ResponseCache;
+import ru.artyomkad.nkrp.service.StageStats;
+import ru.artyomkad.nkrp.service.StartupTimer;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.InputStream;
 import java.sql.SQLException;
-import java.util.Map;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.List;
 import java.util.ArrayList;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import java.util.stream.Collectors;
 
 import static ru.artyomkad.nkrp.bot.BotUtil.parseDateAndArg;
 import static ru.artyomkad.nkrp.bot.BotUtil.ParsedArg;
@@ -35,26 +40,49 @@ public class TelegramBot extends TelegramLongPollingBot {
     private final String botUsername;
     private final long creatorId;
     private final DatabaseService dbService;
-    private final Map<Long, BotState> userStates = new ConcurrentHashMap<>();
+    private final UpdateDispatcher dispatcher;
+    private final ChatAdminCache chatAdmins;
+    private final CanteenMenuService canteen;
+    private final ChatStateStore userStates;
+    private final StageStats deliveryStats = new StageStats("delivery");
+    private final StageStats replyStats = new StageStats("reply");
+
+    private static final ReplyKeyboardMarkup MAIN_MENU = keyboard(
+            new String[]{"📅 Моё расписание", "📆 Неделя", "🔍 Поиск"},
+            new String[]{"🔔 Подписка", "🍽️ Столовая"});
+    private static final ReplyKeyboardMarkup SUB_MENU = keyboard(
+            new String[]{"🎓 Подписаться на группу"},
+            new String[]{"👨‍🏫 Подписаться на преподавателя"},
+            new String[]{"🔕 Отписаться"},
+            new String[]{"🔙 В главное меню"});
+    private static final ReplyKeyboardMarkup SEARCH_MENU = keyboard(
+            new String[]{"🎓 Поиск по группе", "👨‍🏫 Поиск по преподавателю"},
+            new String[]{"\uD83D\uDEAA Поиск по кабинету"},
+            new String[]{"🔙 В главное меню"});
+    private static final ReplyKeyboardMarkup ADMIN_MENU = keyboard(
+            new String[]{"📊 Статистика", "📜 Список пользователей"},
+            new String[]{"🔙 Выход"});
+    private static final ReplyKeyboardMarkup BACK_MENU = keyboard(
+            new String[]{"🔙 В главное меню"});
+
+    private final CachedKeyboard<ReplyKeyboardMarkup> groupsKeyboard = new CachedKeyboard<>(TelegramBot::buildListKeyboard);
+    private final CachedKeyboard<ReplyKeyboardMarkup> teachersKeyboard = new CachedKeyboard<>(TelegramBot::buildListKeyboard);
+    private final CachedKeyboard<ReplyKeyboardMarkup> roomsKeyboard = new CachedKeyboard<>(TelegramBot::buildListKeyboard);
 
     private static final Pattern DATE_PATTERN = Pattern.compile(
             "(?i)\\b(\\d{1,2}[./-]\\d{1,2}[./-]\\d{2,4}|\\d{1,2}\\s+(?:янв|фев|мар|апр|ма[йя]|июн|июл|авг|сен|окт|ноя|дек)[а-я]*(\\s+\\d{4})?)\\b"
     );
 
-    private enum BotState {
-        DEFAULT,
-        WAITING_FOR_SUB_GROUP,
-        WAITING_FOR_SUB_TEACHER,
-        WAITING_SEARCH_GROUP,
-        WAITING_SEARCH_TEACHER,
-        WAITING_SEARCH_ROOM
-    }
-
-    public TelegramBot(DefaultBotOptions botOptions, String botToken, String botUsername, long creatorId, DatabaseService dbService) {
+    public TelegramBot(DefaultBotOptions botOptions, String botToken, String botUsername, long creatorId, DatabaseService dbService,
+                       UpdateDispatcher dispatcher, ChatStateStore userStates, long adminCacheTtlMs, CanteenMenuService canteen) {
         super(botOptions, botToken);
         this.botUsername = botUsername;
         this.creatorId = creatorId;
         this.dbService = dbService;
+        this.dispatcher = dispatcher;
+        this.userStates = userStates;
+        this.chatAdmins = new ChatAdminCache(this::loadChatAdmins, adminCacheTtlMs, 10_000);
+        this.canteen = canteen;
     }
 
     @Override
@@ -62,23 +90,51 @@ public class TelegramBot extends TelegramLongPollingBot {
 
     @Override
     public void onUpdateReceived(Update update) {
+        handleUpdate(update, System.nanoTime());
+    }
+
+    // Общая точка входа для long polling и вебхука; receivedAt — System.nanoTime() в момент получения
+    // Сама обработка уходит в диспетчер, поток библиотеки (или вебхука) сразу свободен для следующего апдейта
+    void handleUpdate(Update update, long receivedAt) {
+        // Права в чате поменялись — список админов перечитается при следующей проверке
+        if (update.hasChatMember()) chatAdmins.invalidate(update.getChatMember().getChat().getId());
+        if (update.hasMyChatMember()) chatAdmins.invalidate(update.getMyChatMember().getChat().getId());
         if (!update.hasMessage() || !update.getMessage().hasText()) return;
 
         Message message = update.getMessage();
-        boolean isPrivate = message.getChat().isUserChat();
 
-        if (isPrivate) {
-            handlePrivateChat(message);
-        } else {
-            handleGroupChat(message);
+        // Задержка доставки: от отправки сообщения пользователем до получения ботом (дата в Telegram — в секундах)
+        if (message.getDate() != null) {
+            long lagMs = Math.max(0, System.currentTimeMillis() - message.getDate() * 1000L);
+            deliveryStats.record(lagMs * 1_000_000);
+        }
+        dispatcher.dispatch(Platform.Telegram, message.getChatId(), () -> handleMessage(message, receivedAt));
+    }
+
+    private void handleMessage(Message message, long receivedAt) {
+        boolean isPrivate = message.getChat().isUserChat();
+        try {
+            if (isPrivate) {
+                handlePrivateChat(message);
+            } else {
+                handleGroupChat(message);
+            }
+        } finally {
+            long elapsed = System.nanoTime() - receivedAt;
+            replyStats.record(elapsed);
+            StartupTimer.firstAnswer("TG", elapsed);
         }
     }
 
+    public String getLatencyStats() {
+        return "⏱ " + deliveryStats + "\n⏱ " + replyStats;
+    }
+
     private void handlePrivateChat(Message message) {
         String text = message.getText();
         long chatId = message.getChatId();
         Integer threadId = message.getMessageThreadId();
-        BotState state = userStates.getOrDefault(chatId, BotState.DEFAULT);
+        BotState state = userStates.get(chatId);
         long userId = message.getFrom().getId();
 
         User user = message.getFrom();
@@ -89,11 +145,11 @@ public class TelegramBot extends TelegramLongPollingBot {
             if (userId == this.creatorId) {
                 switch (text) {
                     case "/admin" -> {
-                        sendMenu(chatId, threadId, "⚙️ Панель администратора:", getAdminMenu());
+                        sendMenu(chatId, threadId, "⚙️ Панель администратора:", ADMIN_MENU);
                         return;
                     }
                     case "📊 Статистика" -> {
-                        sendMessage(chatId, threadId, dbService.getUsersStats());
+                        sendMessage(chatId, threadId, dbService.getUsersStats() + "\n\n" + getLatencyStats());
                         return;
                     }
                     case "📜 Список пользователей" -> {
@@ -102,14 +158,14 @@ public class TelegramBot extends TelegramLongPollingBot {
                     }
                     case "🔙 Выход" -> {
                         userStates.put(chatId, BotState.DEFAULT);
-                        sendMenu(chatId, threadId, "Главное меню", getMainMenu());
+                        sendMenu(chatId, threadId, "Главное меню", MAIN_MENU);
                         return;
                     }
                 }
             }
             if (text.equals("/start") || text.equals("🔙 В главное меню")) {
                 userStates.put(chatId, BotState.DEFAULT);
-                sendMenu(chatId, threadId, "Главное меню", getMainMenu());
+                sendMenu(chatId, threadId, "Главное меню", MAIN_MENU);
                 return;
             }
 
@@ -119,11 +175,14 @@ public class TelegramBot extends TelegramLongPollingBot {
                     case "/my":
                         handleMySchedule(chatId, threadId, null);
                         return;
+                    case "📆 Неделя":
+                        handleWeek(chatId, threadId, null);
+                        return;
                     case "🔔 Подписка":
-                        sendMenu(chatId, threadId, "На что подписываемся?", getSubMenu());
+                        sendMenu(chatId, threadId, "На что подписываемся?", SUB_MENU);
                         return;
                     case "🔍 Поиск":
-                        sendMenu(chatId, threadId, "Что ищем?", getSearchMenu());
+                        sendMenu(chatId, threadId, "Что ищем?", SEARCH_MENU);
                         return;
                     case "🍽️ Столовая":
                     case "/food":
@@ -139,12 +198,12 @@ public class TelegramBot extends TelegramLongPollingBot {
                 switch (text) {
                     case "🎓 Подписаться на группу" -> {
                         userStates.put(chatId, BotState.WAITING_FOR_SUB_GROUP);
-                        sendDynamicKeyboard(chatId, threadId, "Выберите группу:", dbService.getAllGroups());
+                        sendDynamicKeyboard(chatId, threadId, "Выберите группу:", groupsKeyboard, dbService.getAllGroups());
                         return;
                     }
                     case "👨‍🏫 Подписаться на преподавателя" -> {
                         userStates.put(chatId, BotState.WAITING_FOR_SUB_TEACHER);
-                        sendDynamicKeyboard(chatId, threadId, "Выберите преподавателя:", dbService.getAllTeachers());
+                        sendDynamicKeyboard(chatId, threadId, "Выберите преподавателя:", teachersKeyboard, dbService.getAllTeachers());
                         return;
                     }
                     case "🔕 Отписаться" -> {
@@ -154,7 +213,7 @@ public class TelegramBot extends TelegramLongPollingBot {
                     }
                     case "🎓 Поиск по группе" -> {
                         userStates.put(chatId, BotState.WAITING_SEARCH_GROUP);
-                        sendDynamicKeyboard(chatId, threadId, "Выберите группу:", dbService.getAllGroups());
+                        sendDynamicKeyboard(chatId, threadId, "Выберите группу:", groupsKeyboard, dbService.getAllGroups());
                         return;
                     }
 
@@ -166,8 +225,7 @@ public class TelegramBot extends TelegramLongPollingBot {
 
                     case "\uD83D\uDEAA Поиск по кабинету" -> {
                         userStates.put(chatId, BotState.WAITING_SEARCH_ROOM);
-                        List<String> rooms = dbService.getActiveRooms().stream().map(String::valueOf).collect(Collectors.toList());
-                        sendDynamicKeyboard(chatId, threadId, "Выберите кабинет:", rooms);
+                        sendDynamicKeyboard(chatId, threadId, "Выберите кабинет:", roomsKeyboard, dbService.getActiveRooms());
                         return;
                     }
                 }
@@ -187,19 +245,19 @@ public class TelegramBot extends TelegramLongPollingBot {
                     break;
                 case WAITING_SEARCH_GROUP:
                     ParsedArg pa = parseDateAndArg(text);
-                    sendMessageHTML(chatId, threadId, dbService.getScheduleByGroup(pa.text(), pa.date()));
+                    sendView(chatId, threadId, dbService.getScheduleByGroup(pa.text(), pa.date()));
                     goBackToMain(chatId, threadId);
                     break;
                 case WAITING_SEARCH_TEACHER:
                     ParsedArg pt = parseDateAndArg(text);
-                    sendMessageHTML(chatId, threadId, dbService.getScheduleByTeacher(pt.text(), pt.date()));
+                    sendView(chatId, threadId, dbService.getScheduleByTeacher(pt.text(), pt.date()));
                     goBackToMain(chatId, threadId);
                     break;
                 case WAITING_SEARCH_ROOM:
                     try {
                         ParsedArg pr = parseDateAndArg(text);
                         int room = Integer.parseInt(pr.text());
-                        sendMessageHTML(chatId, threadId, dbService.getScheduleByRoom(room, pr.date()));
+                        sendView(chatId, threadId, dbService.getScheduleByRoom(room, pr.date()));
                         goBackToMain(chatId, threadId);
                     } catch (NumberFormatException e) {
                         sendMessage(chatId, threadId, "Введите число.");
@@ -249,25 +307,29 @@ public class TelegramBot extends TelegramLongPollingBot {
                 case "/fg":
                 case "/find_group":
                     if (parsed.text().isEmpty()) sendMessage(chatId, threadId, "Пример: /fg 1-ИП-2 [дата]");
-                    else sendMessageHTML(chatId, threadId, dbService.getScheduleByGroup(parsed.text(), parsed.date()));
+                    else sendView(chatId, threadId, dbService.getScheduleByGroup(parsed.text(), parsed.date()));
                     break;
 
                 case "/ft":
                 case "/find_teacher":
                     if (parsed.text().isEmpty()) sendMessage(chatId, threadId, "Пример: /ft Сергеева [дата]");
-                    else sendMessageHTML(chatId, threadId, dbService.getScheduleByTeacher(parsed.text(), parsed.date()));
+                    else sendView(chatId, threadId, dbService.getScheduleByTeacher(parsed.text(), parsed.date()));
                     break;
 
                 case "/fr":
                 case "/find_room":
                     try {
                         if (parsed.text().isEmpty()) throw new NumberFormatException();
-                        sendMessageHTML(chatId, threadId, dbService.getScheduleByRoom(Integer.parseInt(parsed.text()), parsed.date()));
+                        sendView(chatId, threadId, dbService.getScheduleByRoom(Integer.parseInt(parsed.text()), parsed.date()));
                     } catch (NumberFormatException e) {
                         sendMessage(chatId, threadId, "Пример: /fr 205 [дата]");
                     }
                     break;
 
+                case "/free":
+                    sendView(chatId, threadId, dbService.getFreeRooms(parsed.text(), parsed.date()));
+                    break;
+
                 case "/sg":
                 case "/sub_group":
                     if (!isPrivate && cannotManageSubscription(originalMessage)) {
@@ -300,8 +362,24 @@ public class TelegramBot extends TelegramLongPollingBot {
                         sendMessage(chatId, threadId, "⛔ Только админы могут менять подписку.");
                         return;
                     }
-                    dbService.unsubscribeUser(chatId, threadId, Platform.Telegram);
-                    sendMessage(chatId, threadId, "✅ Подписка отключена для этого чата/треда.");
+                    if (parsed.text().isEmpty()) {
+                        dbService.unsubscribeUser(chatId, threadId, Platform.Telegram);
+                        sendMessage(chatId, threadId, "✅ Все подписки отключены для этого чата/треда.");
+                    } else if (dbService.unsubscribeUser(chatId, threadId, 0, parsed.text(), Platform.Telegram)
+                            || dbService.unsubscribeUser(chatId, threadId, 1, parsed.text(), Platform.Telegram)) {
+                        sendMessage(chatId, threadId, "✅ Подписка на " + parsed.text() + " отключена.");
+                    } else {
+                        sendMessage(chatId, threadId, "Подписки на " + parsed.text() + " нет. Посмотреть подписки: /subs");
+                    }
+                    break;
+
+                case "/week":
+                    if (parsed.text().isEmpty()) handleWeek(chatId, threadId, parsed.date());
+                    else sendView(chatId, threadId, dbService.getWeekSchedule(parsed.text(), parsed.date()));
+                    break;
+
+                case "/subs":
+                    sendMessage(chatId, threadId, BotUtil.formatSubscriptions(dbService.getUserSubscriptions(chatId, threadId, Platform.Telegram)));
                     break;
 
                 case "/my":
@@ -313,12 +391,32 @@ public class TelegramBot extends TelegramLongPollingBot {
                     handleMySchedule(chatId, threadId, dateForMy);
                     break;
 
+                case "/remind":
+                    if (!isPrivate && cannotManageSubscription(originalMessage)) {
+                        sendMessage(chatId, threadId, "⛔ Только админы могут менять подписку.");
+                        return;
+                    }
+                    handleRemind(chatId, threadId, argRaw);
+                    break;
+
+                case "/digest":
+                    if (!isPrivate && cannotManageSubscription(originalMessage)) {
+                        sendMessage(chatId, threadId, "⛔ Только админы могут менять подписку.");
+                        return;
+                    }
+                    handleDigest(chatId, threadId, argRaw);
+                    break;
+
+                case "/now":
+                    handleNow(chatId, threadId);
+                    break;
+
                 case "/food":
                     sendCanteenMenu(chatId, threadId);
                     break;
                 case "/admin":
                     if (userId == this.creatorId && isPrivate) {
-                        sendMenu(chatId, threadId, "⚙️ Панель администратора:", getAdminMenu());
+                        sendMenu(chatId, threadId, "⚙️ Панель администратора:", ADMIN_MENU);
                     }
                     break;
                 case "/broadcast":
@@ -354,25 +452,94 @@ public class TelegramBot extends TelegramLongPollingBot {
     }
 
     private void handleMySchedule(long chatId, Integer threadId, String date) throws SQLException {
-        String[] sub = dbService.getUserSubscription(chatId, threadId, Platform.Telegram);
-        if (sub == null) {
+        List<DatabaseService.Subscription> subs = dbService.getUserSubscriptions(chatId, threadId, Platform.Telegram);
+        if (subs.isEmpty()) {
+            sendMessage(chatId, threadId, "В этом треде нет активной подписки.");
+            return;
+        }
+        for (DatabaseService.Subscription sub : subs) {
+            ScheduleView res = sub.subType() == 0
+                    ? dbService.getScheduleByGroup(sub.subValue(), date)
+                    : dbService.getScheduleByTeacher(sub.subValue(), date);
+            sendView(chatId, threadId, res);
+        }
+    }
+
+    private void handleWeek(long chatId, Integer threadId, String date) throws SQLException {
+        List<DatabaseService.Subscription> subs = dbService.getUserSubscriptions(chatId, threadId, Platform.Telegram);
+        if (subs.isEmpty()) {
+            sendMessage(chatId, threadId, "В этом треде нет активной подписки. Пример: /week 1-ИП-2 [дата]");
+            return;
+        }
+        for (DatabaseService.Subscription sub : subs) {
+            ResponseCache.Kind kind = sub.subType() == 0 ? ResponseCache.Kind.GROUP : ResponseCache.Kind.TEACHER;
+            sendView(chatId, threadId, dbService.getWeekSchedule(kind, sub.subValue(), date));
+        }
+    }
+
+    private void handleRemind(long chatId, Integer threadId, String arg) throws SQLException {
+        if (dbService.getUserSubscriptions(chatId, threadId, Platform.Telegram).isEmpty()) {
+            sendMessage(chatId, threadId, "Сначала подпишитесь на группу или преподавателя.");
+            return;
+        }
+        if (arg.isBlank()) {
+            int current = dbService.getReminderMinutes(chatId, threadId, Platform.Telegram);
+            sendMessage(chatId, threadId, (current == 0 ? "🔕 Напоминания выключены." : "⏰ Напоминаю за " + current + " мин до пары.")
+                    + "\nПример: /remind 10 или /remind off");
+            return;
+        }
+        Integer minutes = BotUtil.parseRemindMinutes(arg);
+        if (minutes == null) {
+            sendMessage(chatId, threadId, "Укажите число минут от 1 до " + BotUtil.MAX_REMIND_MINUTES + " или off.");
+            return;
+        }
+        dbService.setReminder(chatId, threadId, Platform.Telegram, minutes);
+        sendMessage(chatId, threadId, minutes == 0 ? "🔕 Напоминания выключены." : "✅ Буду напоминать за " + minutes + " мин до пары.");
+    }
+
+    private void handleDigest(long chatId, Integer threadId, String arg) throws SQLException {
+        if (dbService.getUserSubscriptions(chatId, threadId, Platform.Telegram).isEmpty()) {
+            sendMessage(chatId, threadId, "Сначала подпишитесь на группу или преподавателя.");
+            return;
+        }
+        Boolean enable = BotUtil.parseOnOff(arg);
+        if (enable == null) {
+            boolean enabled = dbService.isDigestEnabled(chatId, threadId, Platform.Telegram);
+            sendMessage(chatId, threadId, (enabled ? "🌙 Вечерняя рассылка включена." : "🔕 Вечерняя рассылка выключена.")
+                    + "\nПример: /digest on или /digest off");
+            return;
+        }
+        dbService.setDigest(chatId, threadId, Platform.Telegram, enable);
+        sendMessage(chatId, threadId, enable ? "✅ Каждый вечер пришлю расписание на завтра." : "🔕 Вечерняя рассылка выключена.");
+    }
+
+    private void handleNow(long chatId, Integer threadId) throws SQLException {
+        List<DatabaseService.Subscription> subs = dbService.getUserSubscriptions(chatId, threadId, Platform.Telegram);
+        if (subs.isEmpty()) {
             sendMessage(chatId, threadId, "В этом треде нет активной подписки.");
             return;
         }
-        String res = (Integer.parseInt(sub[0]) == 0)
-                ? dbService.getScheduleByGroup(sub[1], date)
-                : dbService.getScheduleByTeacher(sub[1], date);
-        sendMessageHTML(chatId, threadId, res);
+        for (DatabaseService.Subscription sub : subs) {
+            sendView(chatId, threadId, dbService.getNowAndNext(sub.subType(), sub.subValue()));
+        }
     }
 
     private void sendCanteenMenu(long chatId, Integer threadId) {
-        try (InputStream in = BotUtil.downloadAsStream()) {
+        try {
+            CanteenMenuService.Menu menu = canteen.get();
             SendDocument doc = new SendDocument();
             doc.setChatId(String.valueOf(chatId));
             doc.setMessageThreadId(threadId);
-            doc.setDocument(new InputFile(in, "menu_" + System.currentTimeMillis() + ".pdf"));
             doc.setCaption("\uD83C\uDF7D️ Меню столовой");
-            execute(doc);
+            String fileId = menu.getTelegramFileId();
+            if (fileId != null) {
+                doc.setDocument(new InputFile(fileId));
+                execute(doc);
+                return;
+            }
+            doc.setDocument(new InputFile(new ByteArrayInputStream(menu.getBytes()), "menu.pdf"));
+            Message sent = execute(doc);
+            if (sent != null && sent.getDocument() != null) menu.setTelegramFileId(sent.getDocument().getFileId());
         } catch (Exception e) {
             e.printStackTrace();
             sendMessage(chatId, threadId, "Не удалось скачать меню.");
@@ -402,22 +569,27 @@ public class TelegramBot extends TelegramLongPollingBot {
     private boolean cannotManageSubscription(Message message) {
         if (message == null || message.getChat().isUserChat()) return false;
         try {
-            GetChatMember getChatMember = new GetChatMember(String.valueOf(message.getChatId()), message.getFrom().getId());
-            ChatMember member = execute(getChatMember);
-            String status = member.getStatus();
-            return !status.equals("administrator") && !status.equals("creator");
+            return !chatAdmins.isAdmin(message.getChatId(), message.getFrom().getId());
         } catch (TelegramApiException e) {
             return true;
         }
     }
 
+    private Set<Long> loadChatAdmins(long chatId) throws TelegramApiException {
+        Set<Long> admins = new HashSet<>();
+        for (ChatMember member : execute(new GetChatAdministrators(String.valueOf(chatId)))) {
+            admins.add(member.getUser().getId());
+        }
+        return admins;
+    }
+
     private void goBackToMain(long chatId, Integer threadId) {
         userStates.put(chatId, BotState.DEFAULT);
-        sendMenu(chatId, threadId, "Главное меню", getMainMenu());
+        sendMenu(chatId, threadId, "Главное меню", MAIN_MENU);
     }
 
     private void sendHelp(long chatId, Integer threadId, boolean isPrivate) {
-        String txt = "🤖 <b>Команды:</b>\n/fg [группа] [дата], /ft [преподаватель] [дата], /fr [кабинет] [дата], /my [дата], /food";
+        String txt = "🤖 <b>Команды:</b>\n/fg [группа] [дата], /ft [преподаватель] [дата], /fr [кабинет] [дата], /free [пара|now] [дата], /my [дата], /week [группа|преподаватель|кабинет] [дата], /subs, /unsub [название], /now, /remind [мин|off], /digest [on|off], /food";
         if (!isPrivate) txt += "\n\n🔒 <b>Админам:</b>\n/sg [группа] - Подписка на группу\n/st [фамилия] - Подписка на преподавателя\n/unsub - Отписаться";
         sendMessageHTML(chatId, threadId, txt);
     }
@@ -447,6 +619,10 @@ public class TelegramBot extends TelegramLongPollingBot {
         }
     }
 
+    public void sendView(long chatId, Integer threadId, ScheduleView view) {
+        sendMessageHTML(chatId, threadId, view.render(ScheduleRenderer.TELEGRAM_HTML));
+    }
+
     private void checkAndRemoveBlockedUser(TelegramApiException e, long chatId, Integer threadId) {
         String errorMsg = e.getMessage().toLowerCase();
         if (errorMsg.contains("blocked") ||
@@ -474,68 +650,43 @@ public class TelegramBot extends TelegramLongPollingBot {
     }
 
     private void sendBackButtonKeyboard(long chatId, Integer threadId) {
-        ReplyKeyboardMarkup markup = new ReplyKeyboardMarkup();
-        markup.setResizeKeyboard(true);
-        List<KeyboardRow> rows = new ArrayList<>();
-        KeyboardRow row = new KeyboardRow();
-        row.add("🔙 В главное меню");
-        rows.add(row);
-        markup.setKeyboard(rows);
-        sendMenu(chatId, threadId, "✍️ Введите фамилию преподавателя (полностью или часть):", markup);
+        sendMenu(chatId, threadId, "✍️ Введите фамилию преподавателя (полностью или часть):", BACK_MENU);
     }
 
-    private void sendDynamicKeyboard(long chatId, Integer threadId, String text, List<String> data) {
+    private void sendDynamicKeyboard(long chatId, Integer threadId, String text, CachedKeyboard<ReplyKeyboardMarkup> cache, List<?> data) {
         if (data.isEmpty()) { sendMessage(chatId, threadId, "Список пуст."); return; }
-        ReplyKeyboardMarkup markup = new ReplyKeyboardMarkup();
-        markup.setResizeKeyboard(true);
+        sendMenu(chatId, threadId, text, cache.get(data));
+    }
+
+    private static ReplyKeyboardMarkup buildListKeyboard(List<?> data) {
         List<KeyboardRow> rows = new ArrayList<>();
         KeyboardRow currentRow = new KeyboardRow();
         int buttonsPerRow = 2;
         for (int i = 0; i < data.size(); i++) {
-            currentRow.add(data.get(i));
+            currentRow.add(String.valueOf(data.get(i)));
             if ((i + 1) % buttonsPerRow == 0 || i == data.size() - 1) {
                 rows.add(currentRow); currentRow = new KeyboardRow();
             }
         }
         KeyboardRow backRow = new KeyboardRow(); backRow.add("🔙 В главное меню"); rows.add(backRow);
-        markup.setKeyboard(rows);
-        sendMenu(chatId, threadId, text, markup);
+        return keyboard(rows);
     }
 
-    private ReplyKeyboardMarkup getMainMenu() {
-        ReplyKeyboardMarkup markup = new ReplyKeyboardMarkup(); markup.setResizeKeyboard(true);
+    // Статичные меню собираются один раз и переиспользуются во всех ответах
+    private static ReplyKeyboardMarkup keyboard(String[]... labels) {
         List<KeyboardRow> rows = new ArrayList<>();
-        KeyboardRow r1 = new KeyboardRow(); r1.add("📅 Моё расписание"); r1.add("🔍 Поиск");
-        KeyboardRow r2 = new KeyboardRow(); r2.add("🔔 Подписка"); r2.add("🍽️ Столовая");
-        rows.add(r1); rows.add(r2); markup.setKeyboard(rows); return markup;
-    }
-    private ReplyKeyboardMarkup getSubMenu() {
-        ReplyKeyboardMarkup markup = new ReplyKeyboardMarkup(); markup.setResizeKeyboard(true);
-        List<KeyboardRow> rows = new ArrayList<>();
-        KeyboardRow r1 = new KeyboardRow(); r1.add("🎓 Подписаться на группу");
-        KeyboardRow r2 = new KeyboardRow(); r2.add("👨‍🏫 Подписаться на преподавателя");
-        KeyboardRow r3 = new KeyboardRow(); r3.add("🔕 Отписаться");
-        KeyboardRow r4 = new KeyboardRow(); r4.add("🔙 В главное меню");
-        rows.add(r1); rows.add(r2); rows.add(r3); rows.add(r4); markup.setKeyboard(rows); return markup;
-    }
-    private ReplyKeyboardMarkup getSearchMenu() {
-        ReplyKeyboardMarkup markup = new ReplyKeyboardMarkup(); markup.setResizeKeyboard(true);
-        List<KeyboardRow> rows = new ArrayList<>();
-        KeyboardRow r1 = new KeyboardRow(); r1.add("🎓 Поиск по группе"); r1.add("👨‍🏫 Поиск по преподавателю");
-        KeyboardRow r2 = new KeyboardRow(); r2.add("\uD83D\uDEAA Поиск по кабинету");
-        KeyboardRow r3 = new KeyboardRow(); r3.add("🔙 В главное меню");
-        rows.add(r1); rows.add(r2); rows.add(r3); markup.setKeyboard(rows); return markup;
+        for (String[] rowLabels : labels) {
+            KeyboardRow row = new KeyboardRow();
+            for (String label : rowLabels) row.add(label);
+            rows.add(row);
+        }
+        return keyboard(rows);
     }
 
-    private ReplyKeyboardMarkup getAdminMenu() {
+    private static ReplyKeyboardMarkup keyboard(List<KeyboardRow> rows) {
         ReplyKeyboardMarkup markup = new ReplyKeyboardMarkup();
         markup.setResizeKeyboard(true);
-        List<KeyboardRow> rows = new ArrayList<>();
-        KeyboardRow r1 = new KeyboardRow(); r1.add("📊 Статистика"); r1.add("📜 Список пользователей");
-        KeyboardRow r2 = new KeyboardRow(); r2.add("🔙 Выход");
-        rows.add(r1);
-        rows.add(r2);
         markup.setKeyboard(rows);
         return markup;
     }
-}
\ No newline at end of file
+}
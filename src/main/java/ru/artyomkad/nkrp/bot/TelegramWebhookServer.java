@@ -0,0 +1,172 @@
+package ru.artyomkad.nkrp.bot;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsServer;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyStore;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+
+// Приём обновлений Telegram через вебхук вместо цикла getUpdates.
+// Отвечаем 200 сразу после разбора, обработка идёт в диспетчере бота, чтобы Telegram не ждал ответа на команду.
+public class TelegramWebhookServer implements AutoCloseable {
+    private static final String SECRET_HEADER = "X-Telegram-Bot-Api-Secret-Token";
+
+    // keystorePath == null — обычный HTTP (TLS снимает обратный прокси)
+    public record Settings(String publicUrl, int port, String path, String secret,
+                           String keystorePath, String keystorePassword, int threads) {}
+
+    private final TelegramBot bot;
+    private final Settings settings;
+    private final ObjectMapper mapper = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    // Секрет, который сверяется с заголовком и передаётся в setWebhook; null — только в локальном режиме без publicUrl
+    private final String secretToken;
+    private final byte[] secret;
+    private final ExecutorService handlers;
+    private HttpServer server;
+
+    public TelegramWebhookServer(TelegramBot bot, Settings settings) {
+        this.bot = bot;
+        this.settings = settings;
+        String configured = settings.secret() == null || settings.secret().isBlank() ? null : settings.secret();
+        // Публичный вебхук без секрета принимал бы поддельные апдейты, в том числе «от» создателя бота
+        if (configured == null && settings.publicUrl() != null) {
+            configured = generateSecret();
+            System.out.println("TG_WEBHOOK_SECRET is not set, using a random secret for this run");
+        }
+        this.secretToken = configured;
+        this.secret = configured == null ? null : configured.getBytes(StandardCharsets.UTF_8);
+        this.handlers = Executors.newFixedThreadPool(settings.threads(), r -> {
+            Thread t = new Thread(r, "tg-webhook");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public void start() throws Exception {
+        InetSocketAddress address = new InetSocketAddress(settings.port());
+        if (settings.keystorePath() == null) {
+            server = HttpServer.create(address, 0);
+        } else {
+            HttpsServer https = HttpsServer.create(address, 0);
+            https.setHttpsConfigurator(new HttpsConfigurator(sslContext()));
+            server = https;
+        }
+        server.createContext(settings.path(), this::handle);
+        server.setExecutor(handlers);
+        server.start();
+        System.out.println("Telegram webhook listening on :" + settings.port() + settings.path());
+        if (secret == null) System.err.println("Telegram webhook accepts updates without a secret; use this only locally");
+
+        if (settings.publicUrl() != null) registerWebhook();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        long receivedAt = System.nanoTime();
+        try (exchange) {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            if (secret != null) {
+                String header = exchange.getRequestHeaders().getFirst(SECRET_HEADER);
+                if (header == null || !MessageDigest.isEqual(secret, header.getBytes(StandardCharsets.UTF_8))) {
+                    exchange.sendResponseHeaders(401, -1);
+                    return;
+                }
+            }
+
+            Update update;
+            try (InputStream body = exchange.getRequestBody()) {
+                update = mapper.readValue(body, Update.class);
+            } catch (IOException e) {
+                exchange.sendResponseHeaders(400, -1);
+                return;
+            }
+            exchange.sendResponseHeaders(200, -1);
+            bot.handleUpdate(update, receivedAt);
+        }
+    }
+
+    private void registerWebhook() throws IOException, InterruptedException {
+        StringBuilder form = new StringBuilder()
+                .append("url=").append(encode(settings.publicUrl() + settings.path()))
+                .append("&allowed_updates=").append(encode(allowedUpdatesJson()))
+                .append("&max_connections=").append(Math.max(settings.threads(), 1));
+        form.append("&secret_token=").append(encode(secretToken));
+
+        HttpRequest request = HttpRequest.newBuilder(URI.create("https://api.telegram.org/bot" + bot.getBotToken() + "/setWebhook"))
+                .timeout(Duration.ofSeconds(30))
+                .header("Content-Type", "application/x-www-form-urlencoded")
+                .POST(HttpRequest.BodyPublishers.ofString(form.toString()))
+                .build();
+        try (HttpClient client = HttpClient.newHttpClient()) {
+            HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+            if (response.statusCode() != 200) {
+                throw new IOException("setWebhook failed: " + response.statusCode() + " " + response.body());
+            }
+        }
+        System.out.println("Telegram webhook set to " + settings.publicUrl() + settings.path());
+    }
+
+    // Telegram допускает в secret_token только A-Z, a-z, 0-9, _ и -
+    private static String generateSecret() {
+        byte[] bytes = new byte[32];
+        new SecureRandom().nextBytes(bytes);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+
+    private String allowedUpdatesJson() {
+        List<String> allowed = bot.getOptions().getAllowedUpdates();
+        if (allowed == null || allowed.isEmpty()) return "[]";
+        return allowed.stream().map(type -> "\"" + type + "\"").collect(Collectors.joining(",", "[", "]"));
+    }
+
+    private SSLContext sslContext() throws Exception {
+        char[] password = settings.keystorePassword() == null ? new char[0] : settings.keystorePassword().toCharArray();
+        KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        try (InputStream in = Files.newInputStream(Path.of(settings.keystorePath()))) {
+            keyStore.load(in, password);
+        }
+        KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        kmf.init(keyStore, password);
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(kmf.getKeyManagers(), null, null);
+        return context;
+    }
+
+    private static String encode(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void close() {
+        if (server != null) server.stop(1);
+        handlers.shutdownNow();
+    }
+}
@@ -0,0 +1,49 @@
+package ru.artyomkad.nkrp.bot;
+
+import ru.artyomkad.nkrp.service.DatabaseService.Platform;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+// Общий диспетчер входящих сообщений обоих ботов: каждое сообщение обрабатывается в своём виртуальном потоке,
+// но сообщения одного чата выстраиваются в цепочку, чтобы переходы userStates шли строго по порядку
+public class UpdateDispatcher implements AutoCloseable {
+
+    private record ChatKey(Platform platform, long chatId) {}
+
+    private final ExecutorService executor = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("update-", 0).factory());
+    // Хвост цепочки чата; удаляется, когда последняя задача завершилась и новых не пришло
+    private final Map<ChatKey, CompletableFuture<Void>> tails = new ConcurrentHashMap<>();
+
+    public void dispatch(Platform platform, long chatId, Runnable task) {
+        ChatKey key = new ChatKey(platform, chatId);
+        // handle: даже если предыдущая задача завершилась с ошибкой, следующие сообщения чата не пропадают
+        CompletableFuture<Void> next = tails.compute(key, (_, tail) -> tail == null
+                ? CompletableFuture.runAsync(() -> run(task), executor)
+                : tail.handle((_, _) -> null).thenRunAsync(() -> run(task), executor));
+        next.whenComplete((_, _) -> tails.remove(key, next));
+    }
+
+    public int activeChats() {
+        return tails.size();
+    }
+
+    private static void run(Runnable task) {
+        try {
+            task.run();
+        } catch (Throwable t) {
+            t.printStackTrace();
+        }
+    }
+
+    @Override
+    public void close() throws InterruptedException {
+        executor.shutdown();
+        if (!executor.awaitTermination(10, TimeUnit.SECONDS)) executor.shutdownNow();
+    }
+}
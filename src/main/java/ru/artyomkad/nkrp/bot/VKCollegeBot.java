@@ -1,20 +1,30 @@
 package ru.artyomkad.nkrp.bot;
 
+import com.google.gson.Gson;
+import com.vk.api.sdk.client.TransportClient;
 import com.vk.api.sdk.client.VkApiClient;
 import com.vk.api.sdk.client.actors.GroupActor;
 import com.vk.api.sdk.exceptions.ApiException;
 import com.vk.api.sdk.exceptions.ClientException;
-import com.vk.api.sdk.httpclient.HttpTransportClient;
 import com.vk.api.sdk.objects.docs.Doc;
 import com.vk.api.sdk.objects.docs.responses.SaveResponse;
 import com.vk.api.sdk.objects.messages.*;
 import com.vk.api.sdk.objects.messages.TemplateActionTypeNames;
+import ru.artyomkad.nkrp.model.ScheduleRenderer;
+import ru.artyomkad.nkrp.model.ScheduleView;
+import ru.artyomkad.nkrp.service.CanteenMenuService;
 import ru.artyomkad.nkrp.service.DatabaseService;
 import ru.artyomkad.nkrp.service.DatabaseService.Platform;
+import ru.artyomkad.nkrp.service.LatencyRecorder;
+import ru.artyomkad.nkrp.service.ResponseCache;
+import ru.artyomkad.nkrp.service.StartupTimer;
 
 import java.io.File;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -28,20 +38,36 @@ public class VKCollegeBot extends Thread {
     private final GroupActor actor;
     private final long creatorId;
     private final DatabaseService dbService;
+    private final UpdateDispatcher dispatcher;
+    private final CanteenMenuService canteen;
+    private final VkBulkSender bulk;
+    // Задержка одиночных messages.send — по ней сравниваются транспорты
+    private final LatencyRecorder sendLatency = new LatencyRecorder("vk send", 1024);
     private final Random random = new Random();
 
     private static final Pattern DATE_PATTERN = Pattern.compile(
             "(?i)\\b(\\d{1,2}[./-]\\d{1,2}[./-]\\d{2,4}|\\d{1,2}\\s+(?:янв|фев|мар|апр|ма[йя]|июн|июл|авг|сен|окт|ноя|дек)[а-я]*(\\s+\\d{4})?)\\b"
     );
 
-    private enum BotState { DEFAULT, WAITING_FOR_SUB_GROUP, WAITING_FOR_SUB_TEACHER, WAITING_SEARCH_GROUP, WAITING_SEARCH_TEACHER, WAITING_SEARCH_ROOM }
-    private final java.util.Map<Long, BotState> userStates = new java.util.concurrent.ConcurrentHashMap<>();
+    private static final Gson GSON = new Gson();
+    private static final String MAIN_MENU = GSON.toJson(getMainMenu());
+    private static final String SUB_MENU = GSON.toJson(getSubMenu());
+    private static final String SEARCH_MENU = GSON.toJson(getSearchMenu());
+    private static final String BACK_MENU = GSON.toJson(getBackKeyboard());
+    private static final String ADMIN_MENU = GSON.toJson(getAdminMenu());
 
-    public VKCollegeBot(int groupId, String token, long creatorId, DatabaseService dbService) {
-        this.vk = new VkApiClient(HttpTransportClient.getInstance());
+    private final ChatStateStore userStates;
+
+    public VKCollegeBot(int groupId, String token, long creatorId, DatabaseService dbService, UpdateDispatcher dispatcher,
+                        ChatStateStore userStates, CanteenMenuService canteen, TransportClient transport) {
+        this.vk = new VkApiClient(transport);
         this.actor = new GroupActor(groupId, token);
         this.creatorId = creatorId;
         this.dbService = dbService;
+        this.dispatcher = dispatcher;
+        this.userStates = userStates;
+        this.canteen = canteen;
+        this.bulk = new VkBulkSender(vk, actor, peerId -> dbService.unsubscribeUser(peerId, null, Platform.VKontakte));
     }
 
     @Override
@@ -68,7 +94,12 @@ public class VKCollegeBot extends Thread {
                             long peerId = message.get("peer_id").getAsLong();
                             String text = message.has("text") ? message.get("text").getAsString() : "";
 
-                            handleMessage(peerId, text);
+                            // Поток long poll только забирает события, обработка — в диспетчере
+                            long receivedAt = System.nanoTime();
+                            dispatcher.dispatch(Platform.VKontakte, peerId, () -> {
+                                handleMessage(peerId, text);
+                                StartupTimer.firstAnswer("VK", System.nanoTime() - receivedAt);
+                            });
                         }
                     }
                 } catch (Exception e) {
@@ -89,7 +120,7 @@ public class VKCollegeBot extends Thread {
     }
 
     private void handleMessage(long peerId, String text) {
-        BotState state = userStates.getOrDefault(peerId, BotState.DEFAULT);
+        BotState state = userStates.get(peerId);
         String rawText = text;
         text = text.trim();
         String lowerText = text.toLowerCase();
@@ -113,12 +144,12 @@ public class VKCollegeBot extends Thread {
 
             if (peerId == this.creatorId) {
                 if (lowerText.equals("/admin")) {
-                    sendMenu(peerId, "⚙️ Панель администратора:", getAdminMenu());
+                    sendMenu(peerId, "⚙️ Панель администратора:", ADMIN_MENU);
                     return;
                 }
                 switch (text) {
                     case "📊 Статистика" -> {
-                        sendMessage(peerId, dbService.getUsersStats());
+                        sendMessage(peerId, dbService.getUsersStats() + "\n\n⏱ " + sendLatency);
                         return;
                     }
                     case "📜 Список пользователей" -> {
@@ -127,7 +158,7 @@ public class VKCollegeBot extends Thread {
                     }
                     case "🔙 Выход" -> {
                         userStates.put(peerId, BotState.DEFAULT);
-                        sendMenu(peerId, "Главное меню", getMainMenu());
+                        sendMenu(peerId, "Главное меню", MAIN_MENU);
                         return;
                     }
                 }
@@ -135,12 +166,12 @@ public class VKCollegeBot extends Thread {
 
             if (text.equalsIgnoreCase("назад") || text.equalsIgnoreCase("начало") || text.equalsIgnoreCase("начать")|| text.equals("🔙 В главное меню")) {
                 userStates.put(peerId, BotState.DEFAULT);
-                sendMenu(peerId, "Главное меню", getMainMenu());
+                sendMenu(peerId, "Главное меню", MAIN_MENU);
                 return;
             }
             if (text.equalsIgnoreCase("start") || text.equalsIgnoreCase("/start")) {
                 userStates.put(peerId, BotState.DEFAULT);
-                sendMenu(peerId, "Привет! Выберите действие:", getMainMenu());
+                sendMenu(peerId, "Привет! Выберите действие:", MAIN_MENU);
                 return;
             }
 
@@ -153,23 +184,80 @@ public class VKCollegeBot extends Thread {
                 if (lowerText.startsWith("/fg") || lowerText.startsWith("поиск по группе")) {
                     if (parsed.text().toLowerCase().replace("/fg", "").replace("поиск по группе", "").trim().isEmpty()) {
                         userStates.put(peerId, BotState.WAITING_SEARCH_GROUP);
-                        sendMenu(peerId, "✍️ Введите название группы для поиска (можно с датой, напр. 1-ИП-2 12.12.2025):", getBackKeyboard());
+                        sendMenu(peerId, "✍️ Введите название группы для поиска (можно с датой, напр. 1-ИП-2 12.12.2025):", BACK_MENU);
                     } else {
                         String query = parsed.text().replaceAll("(?i)/fg|поиск по группе", "").trim();
-                        sendMessage(peerId, dbService.getScheduleByGroup(query, parsed.date()));
+                        sendView(peerId, dbService.getScheduleByGroup(query, parsed.date()));
+                    }
+                    return;
+                }
+
+                if (lowerText.equals("/now") || lowerText.equals("сейчас")) {
+                    List<DatabaseService.Subscription> subs = dbService.getUserSubscriptions(peerId, null, Platform.VKontakte);
+                    if (subs.isEmpty()) sendMessage(peerId, "Нет активной подписки.");
+                    for (DatabaseService.Subscription sub : subs) sendView(peerId, dbService.getNowAndNext(sub.subType(), sub.subValue()));
+                    return;
+                }
+
+                if (lowerText.startsWith("/week") || text.equals("📆 Неделя")) {
+                    String target = parsed.text().replaceFirst("(?i)^/week", "").replace("📆 Неделя", "").trim();
+                    if (!target.isEmpty()) {
+                        sendView(peerId, dbService.getWeekSchedule(target, parsed.date()));
+                        return;
+                    }
+                    List<DatabaseService.Subscription> subs = dbService.getUserSubscriptions(peerId, null, Platform.VKontakte);
+                    if (subs.isEmpty()) sendMessage(peerId, "Нет активной подписки. Пример: /week 1-ИП-2 [дата]");
+                    for (DatabaseService.Subscription sub : subs) {
+                        ResponseCache.Kind kind = sub.subType() == 0 ? ResponseCache.Kind.GROUP : ResponseCache.Kind.TEACHER;
+                        sendView(peerId, dbService.getWeekSchedule(kind, sub.subValue(), parsed.date()));
+                    }
+                    return;
+                }
+
+                if (lowerText.equals("/subs") || lowerText.equals("мои подписки")) {
+                    sendMessage(peerId, BotUtil.formatSubscriptions(dbService.getUserSubscriptions(peerId, null, Platform.VKontakte)));
+                    return;
+                }
+
+                if (lowerText.startsWith("/unsub")) {
+                    String value = text.substring("/unsub".length()).trim();
+                    if (value.isEmpty()) {
+                        dbService.unsubscribeUser(peerId, null, Platform.VKontakte);
+                        sendMessage(peerId, "✅ Вы успешно отписались от уведомлений.");
+                    } else if (dbService.unsubscribeUser(peerId, null, 0, value, Platform.VKontakte)
+                            || dbService.unsubscribeUser(peerId, null, 1, value, Platform.VKontakte)) {
+                        sendMessage(peerId, "✅ Подписка на " + value + " отключена.");
+                    } else {
+                        sendMessage(peerId, "Подписки на " + value + " нет. Посмотреть подписки: /subs");
                     }
                     return;
                 }
 
+                if (lowerText.startsWith("/digest")) {
+                    handleDigest(peerId, text.substring("/digest".length()).trim());
+                    return;
+                }
+
+                if (lowerText.startsWith("/remind")) {
+                    handleRemind(peerId, text.substring("/remind".length()).trim());
+                    return;
+                }
+
+                if (lowerText.startsWith("/free")) {
+                    String pairArg = parsed.text().replaceFirst("(?i)^/free", "").trim();
+                    sendView(peerId, dbService.getFreeRooms(pairArg, parsed.date()));
+                    return;
+                }
+
                 switch (text) {
                     case "📅 Моё расписание":
                         handleMySchedule(peerId, null);
                         return;
                     case "🔔 Подписка":
-                        sendMenu(peerId, "На что подписываемся?", getSubMenu());
+                        sendMenu(peerId, "На что подписываемся?", SUB_MENU);
                         return;
                     case "🔍 Поиск":
-                        sendMenu(peerId, "Что ищем?", getSearchMenu());
+                        sendMenu(peerId, "Что ищем?", SEARCH_MENU);
                         return;
                     case "🍽️ Столовая":
                         sendCanteenMenu(peerId);
@@ -179,12 +267,12 @@ public class VKCollegeBot extends Thread {
                 switch (text) {
                     case "🎓 Подписаться на группу" -> {
                         userStates.put(peerId, BotState.WAITING_FOR_SUB_GROUP);
-                        sendMenu(peerId, "✍️ Введите название группы (например, 1-ИП-2):", getBackKeyboard());
+                        sendMenu(peerId, "✍️ Введите название группы (например, 1-ИП-2):", BACK_MENU);
                         return;
                     }
                     case "👨‍🏫 Подписаться на преподавателя" -> {
                         userStates.put(peerId, BotState.WAITING_FOR_SUB_TEACHER);
-                        sendMenu(peerId, "✍️ Введите фамилию преподавателя:", getBackKeyboard());
+                        sendMenu(peerId, "✍️ Введите фамилию преподавателя:", BACK_MENU);
                         return;
                     }
                     case "🔕 Отписаться" -> {
@@ -194,17 +282,17 @@ public class VKCollegeBot extends Thread {
                     }
                     case "🎓 Поиск по группе" -> {
                         userStates.put(peerId, BotState.WAITING_SEARCH_GROUP);
-                        sendMenu(peerId, "✍️ Введите название группы (и дату, если нужно):", getBackKeyboard());
+                        sendMenu(peerId, "✍️ Введите название группы (и дату, если нужно):", BACK_MENU);
                         return;
                     }
                     case "👨‍🏫 Поиск по преподавателю" -> {
                         userStates.put(peerId, BotState.WAITING_SEARCH_TEACHER);
-                        sendMenu(peerId, "✍️ Введите фамилию преподавателя (и дату, если нужно):", getBackKeyboard());
+                        sendMenu(peerId, "✍️ Введите фамилию преподавателя (и дату, если нужно):", BACK_MENU);
                         return;
                     }
                     case "🚪 Поиск по кабинету" -> {
                         userStates.put(peerId, BotState.WAITING_SEARCH_ROOM);
-                        sendMenu(peerId, "✍️ Введите номер кабинета (например, 205 12.12.2025):", getBackKeyboard());
+                        sendMenu(peerId, "✍️ Введите номер кабинета (например, 205 12.12.2025):", BACK_MENU);
                         return;
                     }
                 }
@@ -222,15 +310,15 @@ public class VKCollegeBot extends Thread {
                     goBack(peerId);
                     break;
                 case WAITING_SEARCH_GROUP:
-                    sendMessage(peerId, dbService.getScheduleByGroup(parsed.text(), parsed.date()));
+                    sendView(peerId, dbService.getScheduleByGroup(parsed.text(), parsed.date()));
                     break;
                 case WAITING_SEARCH_TEACHER:
-                    sendMessage(peerId, dbService.getScheduleByTeacher(parsed.text(), parsed.date()));
+                    sendView(peerId, dbService.getScheduleByTeacher(parsed.text(), parsed.date()));
                     break;
                 case WAITING_SEARCH_ROOM:
                     try {
                         int r = Integer.parseInt(parsed.text());
-                        sendMessage(peerId, dbService.getScheduleByRoom(r, parsed.date()));
+                        sendView(peerId, dbService.getScheduleByRoom(r, parsed.date()));
                     } catch(Exception e) { sendMessage(peerId, "Пожалуйста, введите числовой номер кабинета."); }
                     break;
                 default:
@@ -243,9 +331,45 @@ public class VKCollegeBot extends Thread {
         }
     }
 
+    private void handleDigest(long peerId, String arg) throws java.sql.SQLException {
+        if (dbService.getUserSubscriptions(peerId, null, Platform.VKontakte).isEmpty()) {
+            sendMessage(peerId, "Сначала подпишитесь на группу или преподавателя.");
+            return;
+        }
+        Boolean enable = BotUtil.parseOnOff(arg);
+        if (enable == null) {
+            boolean enabled = dbService.isDigestEnabled(peerId, null, Platform.VKontakte);
+            sendMessage(peerId, (enabled ? "🌙 Вечерняя рассылка включена." : "🔕 Вечерняя рассылка выключена.")
+                    + "\nПример: /digest on или /digest off");
+            return;
+        }
+        dbService.setDigest(peerId, null, Platform.VKontakte, enable);
+        sendMessage(peerId, enable ? "✅ Каждый вечер пришлю расписание на завтра." : "🔕 Вечерняя рассылка выключена.");
+    }
+
+    private void handleRemind(long peerId, String arg) throws java.sql.SQLException {
+        if (dbService.getUserSubscriptions(peerId, null, Platform.VKontakte).isEmpty()) {
+            sendMessage(peerId, "Сначала подпишитесь на группу или преподавателя.");
+            return;
+        }
+        if (arg.isBlank()) {
+            int current = dbService.getReminderMinutes(peerId, null, Platform.VKontakte);
+            sendMessage(peerId, (current == 0 ? "🔕 Напоминания выключены." : "⏰ Напоминаю за " + current + " мин до пары.")
+                    + "\nПример: /remind 10 или /remind off");
+            return;
+        }
+        Integer minutes = BotUtil.parseRemindMinutes(arg);
+        if (minutes == null) {
+            sendMessage(peerId, "Укажите число минут от 1 до " + BotUtil.MAX_REMIND_MINUTES + " или off.");
+            return;
+        }
+        dbService.setReminder(peerId, null, Platform.VKontakte, minutes);
+        sendMessage(peerId, minutes == 0 ? "🔕 Напоминания выключены." : "✅ Буду напоминать за " + minutes + " мин до пары.");
+    }
+
     private void handleMySchedule(long peerId, ParsedArg parsed) throws java.sql.SQLException {
-        String[] sub = dbService.getUserSubscription(peerId, null, Platform.VKontakte);
-        if (sub == null) sendMessage(peerId, "Нет активной подписки.");
+        List<DatabaseService.Subscription> subs = dbService.getUserSubscriptions(peerId, null, Platform.VKontakte);
+        if (subs.isEmpty()) sendMessage(peerId, "Нет активной подписки.");
         else {
             String date = (parsed != null && parsed.date() != null) ? parsed.date() : null;
             if (date == null && parsed != null && !parsed.text().isEmpty() && parsed.text().matches(".*\\d+.*")) {
@@ -253,57 +377,54 @@ public class VKCollegeBot extends Thread {
                 if (m.find()) date = m.group(1);
             }
 
-            String res = (Integer.parseInt(sub[0]) == 0)
-                    ? dbService.getScheduleByGroup(sub[1], date)
-                    : dbService.getScheduleByTeacher(sub[1], date);
-            sendMessage(peerId, res);
+            for (DatabaseService.Subscription sub : subs) {
+                ScheduleView res = sub.subType() == 0
+                        ? dbService.getScheduleByGroup(sub.subValue(), date)
+                        : dbService.getScheduleByTeacher(sub.subValue(), date);
+                sendView(peerId, res);
+            }
         }
     }
 
     private void performBroadcast(long adminPeerId, String text) {
         sendMessage(adminPeerId, "⏳ Начинаю рассылку пользователям VK...");
 
-        List<DatabaseService.Subscriber> subscribers = dbService.getAllSubscribersUnique();
-
-        int count = 0;
-        String msg = "⚠️ ОБЪЯВЛЕНИЕ:\n\n" + text;
-
-        for (DatabaseService.Subscriber sub : subscribers) {
-            if (Platform.VKontakte.equals(sub.getPlatform())) {
-                try {
-                    sendMessage(sub.chatId(), msg);
-                    count++;
-                    Thread.sleep(50);
-                } catch (Exception e) {
-                    System.err.println("Failed to send broadcast to " + sub.chatId());
-                }
-            }
+        List<Long> peers = new ArrayList<>();
+        for (DatabaseService.Subscriber sub : dbService.getAllSubscribersUnique()) {
+            if (Platform.VKontakte.equals(sub.getPlatform())) peers.add(sub.chatId());
         }
+        int count = bulk.send(List.of(new VkBulkSender.Outgoing("⚠️ ОБЪЯВЛЕНИЕ:\n\n" + text, peers)));
         sendMessage(adminPeerId, "✅ Рассылка завершена. Отправлено VK пользователям: " + count);
     }
 
     private void sendCanteenMenu(long peerId) {
-        sendMessage(peerId, "⏳ Загружаю меню...");
         File tempFile = null;
         try {
-            tempFile = BotUtil.downloadToTempFile();
-
-            var uploadServer = vk.docs().getMessagesUploadServer(actor)
-                    .peerId((int) peerId)
-                    .execute();
-
-
-            var uploadResponse = vk.upload().doc(
-                    String.valueOf(uploadServer.getUploadUrl()),
-                    tempFile
-            ).execute();
-
-            SaveResponse saveResponse = vk.docs().save(actor, uploadResponse.getFile())
-                    .title("Menu.pdf")
-                    .execute();
-
-            Doc doc = saveResponse.getDoc();
-            String attachment = "doc" + doc.getOwnerId() + "_" + doc.getId();
+            CanteenMenuService.Menu menu = canteen.get();
+            String attachment = menu.getVkAttachment();
+            if (attachment == null) {
+                sendMessage(peerId, "⏳ Загружаю меню...");
+                tempFile = File.createTempFile("canteen_menu", ".pdf");
+                Files.write(tempFile.toPath(), menu.getBytes());
+
+                var uploadServer = vk.docs().getMessagesUploadServer(actor)
+                        .peerId((int) peerId)
+                        .execute();
+
+                var uploadResponse = vk.upload().doc(
+                        String.valueOf(uploadServer.getUploadUrl()),
+                        tempFile
+                ).execute();
+
+                SaveResponse saveResponse = vk.docs().save(actor, uploadResponse.getFile())
+                        .title("Menu.pdf")
+                        .execute();
+
+                Doc doc = saveResponse.getDoc();
+                attachment = "doc" + doc.getOwnerId() + "_" + doc.getId()
+                        + (doc.getAccessKey() == null ? "" : "_" + doc.getAccessKey());
+                menu.setVkAttachment(attachment);
+            }
 
             vk.messages().send(actor)
                     .peerId((int) peerId)
@@ -362,22 +483,33 @@ public class VKCollegeBot extends Thread {
 
     private void goBack(long peerId) {
         userStates.put(peerId, BotState.DEFAULT);
-        sendMenu(peerId, "Главное меню", getMainMenu());
+        sendMenu(peerId, "Главное меню", MAIN_MENU);
+    }
+
+    // Одно и то же или разное сообщение многим адресатам — через peer_ids и execute вместо вызова на каждого
+    public int sendViews(Map<ScheduleView, ? extends Collection<Long>> views) {
+        List<VkBulkSender.Outgoing> messages = new ArrayList<>(views.size());
+        for (Map.Entry<ScheduleView, ? extends Collection<Long>> entry : views.entrySet()) {
+            messages.add(new VkBulkSender.Outgoing(entry.getKey().render(ScheduleRenderer.VK_PLAIN), entry.getValue()));
+        }
+        return bulk.send(messages);
+    }
+
+    public void sendView(long peerId, ScheduleView view) {
+        sendMessage(peerId, view.render(ScheduleRenderer.VK_PLAIN));
     }
 
     public void sendMessage(long peerId, String text) {
         if (text == null || text.isEmpty()) return;
-        String cleanText = text
-                .replace("<b>", "").replace("</b>", "")
-                .replace("<i>", "").replace("</i>", "")
-                .replace("&nbsp;", " ");
 
+        long start = System.nanoTime();
         try {
             vk.messages().send(actor)
-                    .message(cleanText)
+                    .message(text)
                     .peerId((int) peerId)
                     .randomId(random.nextInt())
                     .execute();
+            sendLatency.record(System.nanoTime() - start);
         } catch (ApiException e) {
             if (e.getCode() == 901 || e.getCode() == 902 || e.getCode() == 7) {
                 dbService.unsubscribeUser(peerId, null, Platform.VKontakte);
@@ -389,27 +521,28 @@ public class VKCollegeBot extends Thread {
         }
     }
 
-    private void sendMenu(long peerId, String text, Keyboard keyboard) {
+    // Клавиатура передаётся готовым JSON, чтобы не сериализовать её заново на каждый ответ
+    private void sendMenu(long peerId, String text, String keyboardJson) {
         try {
             vk.messages().send(actor)
                     .message(text)
                     .peerId((int) peerId)
                     .randomId(random.nextInt())
-                    .keyboard(keyboard)
+                    .unsafeParam("keyboard", keyboardJson)
                     .execute();
         } catch (Exception e) { e.printStackTrace(); }
     }
 
-    private Keyboard getMainMenu() {
+    private static Keyboard getMainMenu() {
         Keyboard k = new Keyboard();
         List<List<KeyboardButton>> rows = new ArrayList<>();
-        rows.add(List.of(createBtn("📅 Моё расписание"), createBtn("🔍 Поиск")));
+        rows.add(List.of(createBtn("📅 Моё расписание"), createBtn("📆 Неделя"), createBtn("🔍 Поиск")));
         rows.add(List.of(createBtn("🔔 Подписка"), createBtn("🍽️ Столовая")));
         k.setButtons(rows);
         return k;
     }
 
-    private Keyboard getSubMenu() {
+    private static Keyboard getSubMenu() {
         Keyboard k = new Keyboard();
         List<List<KeyboardButton>> rows = new ArrayList<>();
         rows.add(List.of(createBtn("🎓 Подписаться на группу")));
@@ -420,7 +553,7 @@ public class VKCollegeBot extends Thread {
         return k;
     }
 
-    private Keyboard getSearchMenu() {
+    private static Keyboard getSearchMenu() {
         Keyboard k = new Keyboard();
         List<List<KeyboardButton>> rows = new ArrayList<>();
         rows.add(List.of(createBtn("🎓 Поиск по группе"), createBtn("👨‍🏫 Поиск по преподавателю")));
@@ -430,7 +563,7 @@ public class VKCollegeBot extends Thread {
         return k;
     }
 
-    private Keyboard getBackKeyboard() {
+    private static Keyboard getBackKeyboard() {
         Keyboard k = new Keyboard();
         List<List<KeyboardButton>> rows = new ArrayList<>();
         rows.add(List.of(createBtn("🔙 В главное меню", KeyboardButtonColor.NEGATIVE)));
@@ -438,7 +571,7 @@ public class VKCollegeBot extends Thread {
         return k;
     }
 
-    private Keyboard getAdminMenu() {
+    private static Keyboard getAdminMenu() {
         Keyboard k = new Keyboard();
         List<List<KeyboardButton>> rows = new ArrayList<>();
         rows.add(List.of(createBtn("📊 Статистика"), createBtn("📜 Список пользователей")));
@@ -447,11 +580,11 @@ public class VKCollegeBot extends Thread {
         return k;
     }
 
-    private KeyboardButton createBtn(String label) {
+    private static KeyboardButton createBtn(String label) {
         return createBtn(label, KeyboardButtonColor.PRIMARY);
     }
 
-    private KeyboardButton createBtn(String label, KeyboardButtonColor color) {
+    private static KeyboardButton createBtn(String label, KeyboardButtonColor color) {
         return new KeyboardButton()
                 .setAction(new KeyboardButtonAction()
                         .setType(TemplateActionTypeNames.TEXT)
@@ -0,0 +1,120 @@
+package ru.artyomkad.nkrp.bot;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.vk.api.sdk.client.VkApiClient;
+import com.vk.api.sdk.client.actors.GroupActor;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+import java.util.function.LongConsumer;
+
+// Массовая отправка в VK: одинаковый текст уходит пачками до 100 адресатов через peer_ids,
+// а сами вызовы messages.send упаковываются по 25 в один execute. Ошибки приходят по каждому адресату отдельно.
+final class VkBulkSender {
+    private static final int PEERS_PER_CALL = 100;
+    private static final int CALLS_PER_EXECUTE = 25;
+    // Запас до лимита на длину кода execute
+    private static final int MAX_CODE_LENGTH = 60_000;
+    // Между execute: лимит сообщества — 20 запросов в секунду, оставляем место ответам на команды
+    private static final long EXECUTE_INTERVAL_MS = 100;
+
+    record Outgoing(String text, Collection<Long> peerIds) {}
+
+    private final VkApiClient vk;
+    private final GroupActor actor;
+    private final Random random = new Random();
+    private final LongConsumer onUnreachable;
+
+    VkBulkSender(VkApiClient vk, GroupActor actor, LongConsumer onUnreachable) {
+        this.vk = vk;
+        this.actor = actor;
+        this.onUnreachable = onUnreachable;
+    }
+
+    // Возвращает число адресатов, которым сообщение доставлено
+    int send(List<Outgoing> messages) {
+        List<String> calls = new ArrayList<>();
+        for (Outgoing message : messages) {
+            if (message.text() == null || message.text().isEmpty()) continue;
+            List<Long> peers = new ArrayList<>(message.peerIds());
+            for (int i = 0; i < peers.size(); i += PEERS_PER_CALL) {
+                calls.add(sendCall(message.text(), peers.subList(i, Math.min(i + PEERS_PER_CALL, peers.size()))));
+            }
+        }
+
+        int delivered = 0;
+        StringBuilder code = new StringBuilder();
+        int inBatch = 0;
+        for (String call : calls) {
+            if (inBatch > 0 && (inBatch == CALLS_PER_EXECUTE || code.length() + call.length() + 20 > MAX_CODE_LENGTH)) {
+                delivered += execute(code);
+                code.setLength(0);
+                inBatch = 0;
+            }
+            code.append(inBatch == 0 ? "return [" : ",").append(call);
+            inBatch++;
+        }
+        if (inBatch > 0) delivered += execute(code);
+        return delivered;
+    }
+
+    private String sendCall(String text, List<Long> peers) {
+        StringBuilder ids = new StringBuilder();
+        for (Long peer : peers) {
+            if (!ids.isEmpty()) ids.append(',');
+            ids.append(peer);
+        }
+        JsonObject params = new JsonObject();
+        params.addProperty("peer_ids", ids.toString());
+        params.addProperty("message", text);
+        params.addProperty("random_id", random.nextInt(Integer.MAX_VALUE));
+        return "API.messages.send(" + params + ")";
+    }
+
+    private int execute(StringBuilder code) {
+        code.append("];");
+        int delivered = 0;
+        try {
+            JsonElement response = vk.execute().code(actor, code.toString()).execute();
+            if (response != null && response.isJsonArray()) {
+                for (JsonElement call : response.getAsJsonArray()) delivered += handleCallResult(call);
+            }
+        } catch (Exception e) {
+            System.err.println("VK execute failed: " + e.getMessage());
+        }
+        try {
+            Thread.sleep(EXECUTE_INTERVAL_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return delivered;
+    }
+
+    // Ответ на peer_ids — массив {peer_id, message_id} или {peer_id, error}; false — вызов не прошёл целиком
+    private int handleCallResult(JsonElement call) {
+        if (call == null || !call.isJsonArray()) {
+            System.err.println("VK bulk send call failed: " + call);
+            return 0;
+        }
+        int delivered = 0;
+        JsonArray results = call.getAsJsonArray();
+        for (JsonElement element : results) {
+            JsonObject result = element.getAsJsonObject();
+            if (!result.has("error")) {
+                delivered++;
+                continue;
+            }
+            int errorCode = result.getAsJsonObject("error").get("code").getAsInt();
+            if (errorCode == 901 || errorCode == 902 || errorCode == 7) {
+                onUnreachable.accept(result.get("peer_id").getAsLong());
+            } else {
+                System.err.println("VK bulk send error " + errorCode + " for " + result.get("peer_id").getAsLong());
+            }
+        }
+        return delivered;
+    }
+}
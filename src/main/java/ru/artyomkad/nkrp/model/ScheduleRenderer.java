@@ -0,0 +1,36 @@
+package ru.artyomkad.nkrp.model;
+
+public enum ScheduleRenderer {
+    TELEGRAM_HTML {
+        @Override
+        protected void appendSpan(StringBuilder sb, ScheduleView.Span span) {
+            String text = escapeHtml(span.text());
+            switch (span.style()) {
+                case BOLD -> sb.append("<b>").append(text).append("</b>");
+                case ITALIC -> sb.append("<i>").append(text).append("</i>");
+                default -> sb.append(text);
+            }
+        }
+    },
+    VK_PLAIN {
+        @Override
+        protected void appendSpan(StringBuilder sb, ScheduleView.Span span) {
+            sb.append(span.text().replace("&nbsp;", " "));
+        }
+    };
+
+    protected abstract void appendSpan(StringBuilder sb, ScheduleView.Span span);
+
+    public String render(ScheduleView view) {
+        StringBuilder sb = new StringBuilder();
+        for (ScheduleView.Span span : view.getSpans()) appendSpan(sb, span);
+        return sb.toString();
+    }
+
+    private static String escapeHtml(String text) {
+        return text.replace("&nbsp;", " ")
+                .replace("&", "&amp;")
+                .replace("<", "&lt;")
+                .replace(">", "&gt;");
+    }
+}
@@ -0,0 +1,91 @@
+package ru.artyomkad.nkrp.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+public final class ScheduleView {
+    public enum Style { PLAIN, BOLD, ITALIC }
+
+    public record Span(String text, Style style) {}
+
+    private final List<Span> spans;
+    private final String date;
+    private final AtomicReferenceArray<String> rendered = new AtomicReferenceArray<>(ScheduleRenderer.values().length);
+
+    private ScheduleView(List<Span> spans, String date) {
+        this.spans = List.copyOf(spans);
+        this.date = date;
+    }
+
+    public static ScheduleView plain(String text) {
+        return builder().text(text).build();
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public List<Span> getSpans() {
+        return spans;
+    }
+
+    // Дата из БД, к которой относится ответ; null, если расписание не найдено
+    public String getDate() {
+        return date;
+    }
+
+    public String render(ScheduleRenderer renderer) {
+        String text = rendered.get(renderer.ordinal());
+        if (text == null) {
+            text = renderer.render(this);
+            rendered.compareAndSet(renderer.ordinal(), null, text);
+        }
+        return text;
+    }
+
+    public static final class Builder {
+        private final List<Span> spans = new ArrayList<>();
+        private String date;
+
+        private Builder() {}
+
+        public Builder text(Object text) {
+            return span(String.valueOf(text), Style.PLAIN);
+        }
+
+        public Builder bold(Object text) {
+            return span(String.valueOf(text), Style.BOLD);
+        }
+
+        public Builder italic(Object text) {
+            return span(String.valueOf(text), Style.ITALIC);
+        }
+
+        public Builder append(ScheduleView view) {
+            spans.addAll(view.spans);
+            if (date == null) date = view.date;
+            return this;
+        }
+
+        public Builder date(String date) {
+            this.date = date;
+            return this;
+        }
+
+        public ScheduleView build() {
+            return new ScheduleView(spans, date);
+        }
+
+        private Builder span(String text, Style style) {
+            if (text.isEmpty()) return this;
+            // Соседние куски одного стиля склеиваем, чтобы не плодить теги
+            if (!spans.isEmpty() && spans.getLast().style() == style) {
+                spans.set(spans.size() - 1, new Span(spans.getLast().text() + text, style));
+            } else {
+                spans.add(new Span(text, style));
+            }
+            return this;
+        }
+    }
+}
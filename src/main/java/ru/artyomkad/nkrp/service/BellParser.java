@@ -11,9 +11,11 @@ import java.util.Map;
 
 public class BellParser {
     private final String url;
+    private final SiteFetcher fetcher;
 
-    public BellParser(String url) {
+    public BellParser(String url, SiteFetcher fetcher) {
         this.url = url;
+        this.fetcher = fetcher;
     }
 
     public static class BellsData {
@@ -24,10 +26,8 @@ public class BellParser {
     public BellsData parse() {
         BellsData data = new BellsData();
         try {
-            Document doc = Jsoup.connect(url)
-                    .userAgent("Mozilla/5.0")
-                    .timeout(10000)
-                    .get();
+            SiteFetcher.Page page = fetcher.fetch(url);
+            Document doc = Jsoup.parse(page.stream(), page.charset(), url);
 
             Elements tables = doc.select("div.item-page table");
 
@@ -0,0 +1,86 @@
+package ru.artyomkad.nkrp.service;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Objects;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+public final class BellTable {
+    private static final Pattern RE_TIME = Pattern.compile("(\\d{1,2})[:.](\\d{2})");
+
+    public static final BellTable EMPTY = new BellTable(new BellsInterval[0], new BellsInterval[0]);
+
+    // Минуты от начала суток, конец не включается
+    public record BellsInterval(int pair, int start, int end) {}
+
+    private final BellsInterval[] normal;
+    private final BellsInterval[] monday;
+
+    private BellTable(BellsInterval[] normal, BellsInterval[] monday) {
+        this.normal = normal;
+        this.monday = monday;
+    }
+
+    public static BellTable from(BellParser.BellsData data) {
+        if (data == null) return EMPTY;
+        return new BellTable(parse(data.normal), parse(data.monday));
+    }
+
+    private static BellsInterval[] parse(Map<Integer, String> periods) {
+        return periods.entrySet().stream()
+                .map(e -> toInterval(e.getKey(), e.getValue()))
+                .filter(Objects::nonNull)
+                .sorted((a, b) -> Integer.compare(a.start(), b.start()))
+                .toArray(BellsInterval[]::new);
+    }
+
+    // "8.30-9.15 9.20-10.05" -> 8:30..10:05
+    private static BellsInterval toInterval(int pair, String text) {
+        if (text == null) return null;
+        Matcher m = RE_TIME.matcher(text);
+        int first = -1;
+        int last = -1;
+        while (m.find()) {
+            int minutes = Integer.parseInt(m.group(1)) * 60 + Integer.parseInt(m.group(2));
+            if (first < 0) first = minutes;
+            last = minutes;
+        }
+        if (first < 0 || last <= first) return null;
+        return new BellsInterval(pair, first, last);
+    }
+
+    public BellsInterval[] intervals(boolean isMonday) {
+        return isMonday && monday.length > 0 ? monday : normal;
+    }
+
+    public BellsInterval get(int pair, boolean isMonday) {
+        for (BellsInterval interval : intervals(isMonday)) {
+            if (interval.pair() == pair) return interval;
+        }
+        return null;
+    }
+
+    // Текущая пара или ближайшая следующая, если сейчас перемена; null — пары закончились
+    public BellsInterval currentOrNext(int minuteOfDay, boolean isMonday) {
+        BellsInterval[] table = intervals(isMonday);
+        int idx = Arrays.binarySearch(table, new BellsInterval(-1, minuteOfDay, minuteOfDay),
+                (a, b) -> Integer.compare(a.start(), b.start()));
+        int insertion = idx >= 0 ? idx : -idx - 1;
+        if (idx >= 0) return table[idx];
+        if (insertion > 0 && table[insertion - 1].end() > minuteOfDay) return table[insertion - 1];
+        return insertion < table.length ? table[insertion] : null;
+    }
+
+    // "9:40" / "9.40" -> минуты от начала суток, -1 если время не распознано
+    public static int parseTime(String text) {
+        if (text == null) return -1;
+        Matcher m = RE_TIME.matcher(text);
+        if (!m.find()) return -1;
+        return Integer.parseInt(m.group(1)) * 60 + Integer.parseInt(m.group(2));
+    }
+
+    public static String format(int minutes) {
+        return String.format("%d:%02d", minutes / 60, minutes % 60);
+    }
+}
@@ -0,0 +1,93 @@
+package ru.artyomkad.nkrp.service;
+
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Меню столовой: PDF периодически перекачивается условным GET через SiteFetcher и хранится в памяти.
+// Загруженный в Telegram/VK файл переиспользуется по file_id/вложению, пока не изменится содержимое.
+public class CanteenMenuService implements AutoCloseable {
+
+    public static final class Menu {
+        private final byte[] bytes;
+        private final String hash;
+        private volatile String telegramFileId;
+        private volatile String vkAttachment;
+
+        private Menu(byte[] bytes, String hash) {
+            this.bytes = bytes;
+            this.hash = hash;
+        }
+
+        public byte[] getBytes() { return bytes; }
+        public String getHash() { return hash; }
+        public String getTelegramFileId() { return telegramFileId; }
+        public void setTelegramFileId(String telegramFileId) { this.telegramFileId = telegramFileId; }
+        public String getVkAttachment() { return vkAttachment; }
+        public void setVkAttachment(String vkAttachment) { this.vkAttachment = vkAttachment; }
+    }
+
+    private final String url;
+    private final SiteFetcher fetcher;
+    private final long refreshMs;
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "canteen-menu");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private volatile Menu menu;
+
+    public CanteenMenuService(String url, SiteFetcher fetcher, long refreshMs) {
+        this.url = url;
+        this.fetcher = fetcher;
+        this.refreshMs = refreshMs;
+    }
+
+    public void start() {
+        executor.scheduleWithFixedDelay(() -> {
+            try {
+                refresh();
+            } catch (IOException e) {
+                System.err.println("Canteen menu refresh failed: " + e.getMessage());
+            }
+        }, 0, refreshMs, TimeUnit.MILLISECONDS);
+    }
+
+    // Если фоновая загрузка ещё не прошла (или падала), качаем прямо сейчас
+    public Menu get() throws IOException {
+        Menu current = menu;
+        return current != null ? current : refresh();
+    }
+
+    private synchronized Menu refresh() throws IOException {
+        SiteFetcher.Page page = fetcher.fetch(url);
+        if (page.notModified() && menu != null) return menu;
+
+        byte[] bytes = page.body();
+        String hash = sha256(bytes);
+        // Сайт мог не поддержать условный запрос, но отдать тот же файл — file_id остаются в силе
+        if (menu == null || !menu.getHash().equals(hash)) {
+            menu = new Menu(bytes, hash);
+            System.out.println("Canteen menu updated (" + bytes.length + " bytes)");
+        }
+        return menu;
+    }
+
+    private static String sha256(byte[] bytes) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(bytes));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,65 @@
+package ru.artyomkad.nkrp.service;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+
+public class ChangeDebouncer {
+    public enum Decision { UNCHANGED, PENDING, FLAP_SUPPRESSED, COMMIT }
+
+    private record Pending(String signature, long firstSeen, long lastChanged) {}
+
+    private final long quietPeriodMs;
+    private final long maxHoldMs;
+
+    // Подпись, которая уже лежит в БД (ключ: группа + дата)
+    private final Map<String, String> committed = new HashMap<>();
+    private final Map<String, Pending> pending = new HashMap<>();
+
+    public ChangeDebouncer(long quietPeriodMs, long maxHoldMs) {
+        this.quietPeriodMs = Math.max(0, quietPeriodMs);
+        this.maxHoldMs = Math.max(this.quietPeriodMs, maxHoldMs);
+    }
+
+    public static String key(String groupName, String date) {
+        return groupName + "\u0000" + date;
+    }
+
+    public synchronized Decision offer(String key, String signature, Supplier<String> storedSignature, long now) {
+        String current = committed.computeIfAbsent(key, _ -> storedSignature.get());
+
+        if (signature.equals(current)) {
+            // A -> B -> A: промежуточное состояние так и не было сохранено
+            return pending.remove(key) == null ? Decision.UNCHANGED : Decision.FLAP_SUPPRESSED;
+        }
+
+        Pending p = pending.get(key);
+        if (p == null || !p.signature().equals(signature)) {
+            p = new Pending(signature, p == null ? now : p.firstSeen(), now);
+            pending.put(key, p);
+        }
+
+        // Запись остаётся в pending до confirm: если сохранение упадёт, следующий цикл снова вернёт COMMIT
+        if (now - p.lastChanged() >= quietPeriodMs || now - p.firstSeen() >= maxHoldMs) {
+            return Decision.COMMIT;
+        }
+        return Decision.PENDING;
+    }
+
+    // Вызывается после успешной записи в БД
+    public synchronized void confirm(String key, String signature) {
+        committed.put(key, signature);
+        Pending p = pending.get(key);
+        if (p != null && p.signature().equals(signature)) pending.remove(key);
+    }
+
+    public synchronized void retainOnly(Set<String> seenKeys) {
+        committed.keySet().retainAll(seenKeys);
+        pending.keySet().retainAll(seenKeys);
+    }
+
+    public synchronized int pendingCount() {
+        return pending.size();
+    }
+}
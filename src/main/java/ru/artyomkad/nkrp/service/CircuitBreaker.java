@@ -0,0 +1,83 @@
+package ru.artyomkad.nkrp.service;
+
+import java.io.IOException;
+
+// Предохранитель для внешнего ресурса: после failureThreshold ошибок подряд запросы какое-то время
+// сразу отклоняются, затем пропускается одна пробная попытка. Удача закрывает предохранитель,
+// неудача снова открывает его с удвоенной паузой (не больше maxOpenMs).
+public class CircuitBreaker {
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    public static class OpenException extends IOException {
+        public OpenException(String name, long retryInMs) {
+            super("Circuit open for " + name + ", next probe in " + (retryInMs / 1000) + "s");
+        }
+    }
+
+    private final String name;
+    private final int failureThreshold;
+    private final long openMs;
+    private final long maxOpenMs;
+
+    private State state = State.CLOSED;
+    private int failures;
+    private long currentOpenMs;
+    private long openUntil;
+    private boolean probeInFlight;
+
+    public CircuitBreaker(String name, int failureThreshold, long openMs, long maxOpenMs) {
+        this.name = name;
+        this.failureThreshold = failureThreshold;
+        this.openMs = openMs;
+        this.maxOpenMs = maxOpenMs;
+        this.currentOpenMs = openMs;
+    }
+
+    // Бросает OpenException, если запрос сейчас делать нельзя
+    public synchronized void acquire() throws OpenException {
+        long now = System.currentTimeMillis();
+        if (state == State.OPEN) {
+            if (now < openUntil) throw new OpenException(name, openUntil - now);
+            state = State.HALF_OPEN;
+            probeInFlight = false;
+        }
+        if (state == State.HALF_OPEN) {
+            if (probeInFlight) throw new OpenException(name, 0);
+            probeInFlight = true;
+        }
+    }
+
+    public synchronized void onSuccess() {
+        if (state != State.CLOSED) System.out.println("Circuit closed for " + name);
+        state = State.CLOSED;
+        failures = 0;
+        currentOpenMs = openMs;
+        probeInFlight = false;
+    }
+
+    public synchronized void onFailure() {
+        failures++;
+        if (state == State.HALF_OPEN) {
+            currentOpenMs = Math.min(currentOpenMs * 2, maxOpenMs);
+            open();
+        } else if (state == State.CLOSED && failures >= failureThreshold) {
+            open();
+        }
+    }
+
+    private void open() {
+        state = State.OPEN;
+        probeInFlight = false;
+        openUntil = System.currentTimeMillis() + currentOpenMs;
+        System.err.println("Circuit opened for " + name + " after " + failures + " failures, retry in " + (currentOpenMs / 1000) + "s");
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return name + " " + state + (failures > 0 ? " (" + failures + " failures)" : "");
+    }
+}
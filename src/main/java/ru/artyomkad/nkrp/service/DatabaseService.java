@@ -2,20 +2,42 @@ package ru.artyomkad.nkrp.service;
 
 import ru.artyomkad.nkrp.model.*;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
 import java.sql.Statement;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.time.DateTimeException;
+import java.time.DayOfWeek;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.HashSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Objects;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
@@ -23,12 +45,51 @@ import java.util.regex.Pattern;
 
 public class DatabaseService implements AutoCloseable {
     private static final Logger logger = Logger.getLogger(DatabaseService.class.getName());
+    // Одно соединение на всё: любое обращение к нему идёт под монитором this,
+    // иначе чужой запрос может попасть в открытую транзакцию или откатиться вместе с ней
     private final Connection connection;
+    private final ResponseCache responseCache;
+    private volatile BellParser.BellsData currentBells;
+    private volatile BellTable bellTable = BellTable.EMPTY;
+    private final ZoneId zone;
+    // Таймлайны для /now живут, пока не сменились индекс или звонки
+    private record CachedTimeline(ScheduleIndex index, BellTable bells, String date, LessonTimeline timeline) {}
+    private final Map<String, CachedTimeline> timelines = new ConcurrentHashMap<>();
+
+    private final SubscriberRegistry subscriberRegistry = new SubscriberRegistry();
+    private final List<Consumer<Subscriber>> subscriptionListeners = new CopyOnWriteArrayList<>();
+
+    // Отложенная запись bot_users: визиты одного пользователя склеиваются, в базу уходит последний
+    private record UserKey(long userId, Platform platform) {}
+    private record UserVisit(String username, String fullName, long seenAt) {}
+    private static final DateTimeFormatter LAST_SEEN_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private final ConcurrentHashMap<UserKey, UserVisit> pendingUsers = new ConcurrentHashMap<>();
+    private final int userLogBatch;
+    // Досрочный сброс уже поставлен в очередь — следующие визиты его не дублируют
+    private final AtomicBoolean userLogFlushRequested = new AtomicBoolean();
+    private final ScheduledExecutorService userLogFlusher = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "user-log");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // Файл снимка для быстрого старта; null — снимки отключены
+    private final Path snapshotPath;
+
+    private final AtomicReference<ScheduleSnapshot> published = new AtomicReference<>(new ScheduleSnapshot(0, ScheduleIndex.empty()));
+
+    // Черновик следующего поколения, его видит только апдейтер
+    private ScheduleIndex stagingIndex = ScheduleIndex.empty();
+    private long stagingGeneration = 1;
+    private final Set<String> stagedDates = new HashSet<>();
 
     private static final String[] MONTHS_GENITIVE = {
             "января", "февраля", "марта", "апреля", "мая", "июня",
             "июля", "августа", "сентября", "октября", "ноября", "декабря"
     };
+    private static final String[] WEEKDAYS_SHORT = {"Пн", "Вт", "Ср", "Чт", "Пт", "Сб"};
+    private static final Pattern RE_USER_DATE_NUMERIC = Pattern.compile("^(\\d{1,2})[./-](\\d{1,2})[./-](\\d{2,4})$");
+    private static final Pattern RE_USER_DATE_TEXT = Pattern.compile("^(\\d{1,2})\\s+([а-яё]+)(?:\\s+(\\d{4}))?", Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
 
     public enum Platform {
         Telegram,
@@ -46,8 +107,19 @@ public class DatabaseService implements AutoCloseable {
                 }
             }
         }
+
+        public ScheduleRenderer renderer() {
+            return this == VKontakte ? ScheduleRenderer.VK_PLAIN : ScheduleRenderer.TELEGRAM_HTML;
+        }
     }
 
+    public record Subscription(Subscriber subscriber, int subType, String subValue) {}
+
+    public record ReminderSubscription(Subscription subscription, int minutesBefore) {}
+
+    // state == 0 (DEFAULT) при сохранении означает удаление строки
+    public record ChatState(long chatId, int state, long updatedAt) {}
+
     public record Subscriber(long chatId, Integer messageThreadId, String platform) {
         public Platform getPlatform() {
             Platform platform;
@@ -66,9 +138,21 @@ public class DatabaseService implements AutoCloseable {
         }
     }
 
-    public DatabaseService(String dbName) throws SQLException {
+    public DatabaseService(String dbName, int responseCacheSize, ZoneId zone, long userLogFlushMs, int userLogBatch, Path snapshotPath) throws SQLException {
         this.connection = DriverManager.getConnection("jdbc:sqlite:" + dbName);
+        this.zone = zone;
+        this.responseCache = new ResponseCache(responseCacheSize);
+        this.userLogBatch = userLogBatch;
+        this.snapshotPath = snapshotPath;
         initTables();
+        loadSubscriptions();
+        long generation = recoverPublishedGeneration();
+        if (!loadSnapshot(generation)) {
+            loadBells();
+            loadIndex(generation);
+            writeSnapshot();
+        }
+        userLogFlusher.scheduleWithFixedDelay(this::flushUserLog, userLogFlushMs, userLogFlushMs, TimeUnit.MILLISECONDS);
     }
 
     private void initTables() throws SQLException {
@@ -81,9 +165,11 @@ public class DatabaseService implements AutoCloseable {
                     group_name TEXT NOT NULL,
                     date_val TEXT NOT NULL,
                     is_monday INTEGER DEFAULT 0,
-                    UNIQUE(group_name, date_val) ON CONFLICT REPLACE
+                    generation INTEGER NOT NULL DEFAULT 0,
+                    UNIQUE(group_name, date_val, generation) ON CONFLICT REPLACE
                 );
             """);
+            migrateSchedulesToGenerations(stmt);
 
             stmt.execute("""
                 CREATE TABLE IF NOT EXISTS lessons (
@@ -102,15 +188,16 @@ public class DatabaseService implements AutoCloseable {
             stmt.execute("CREATE TABLE IF NOT EXISTS lesson_labels (lesson_id INTEGER, label TEXT, FOREIGN KEY(lesson_id) REFERENCES lessons(id) ON DELETE CASCADE)");
 
             stmt.execute("""
-                CREATE TABLE IF NOT EXISTS users (
+                CREATE TABLE IF NOT EXISTS subscriptions (
                     chat_id INTEGER,
                     message_thread_id INTEGER DEFAULT 0,
-                    sub_type INTEGER,
-                    sub_value TEXT,
                     platform TEXT DEFAULT 'TG',
-                    PRIMARY KEY (chat_id, message_thread_id, platform)
+                    sub_type INTEGER NOT NULL,
+                    sub_value TEXT NOT NULL,
+                    PRIMARY KEY (chat_id, message_thread_id, platform, sub_type, sub_value)
                 );
             """);
+            migrateUsersToSubscriptions(stmt);
 
             stmt.execute("""
                 CREATE TABLE IF NOT EXISTS bells (
@@ -120,6 +207,37 @@ public class DatabaseService implements AutoCloseable {
                 );
             """);
 
+            stmt.execute("CREATE TABLE IF NOT EXISTS meta (key TEXT PRIMARY KEY, value INTEGER)");
+
+            stmt.execute("""
+                CREATE TABLE IF NOT EXISTS digests (
+                    chat_id INTEGER,
+                    message_thread_id INTEGER DEFAULT 0,
+                    platform TEXT DEFAULT 'TG',
+                    PRIMARY KEY (chat_id, message_thread_id, platform)
+                );
+            """);
+
+            stmt.execute("""
+                CREATE TABLE IF NOT EXISTS reminders (
+                    chat_id INTEGER,
+                    message_thread_id INTEGER DEFAULT 0,
+                    platform TEXT DEFAULT 'TG',
+                    minutes_before INTEGER NOT NULL,
+                    PRIMARY KEY (chat_id, message_thread_id, platform)
+                );
+            """);
+
+            stmt.execute("""
+                CREATE TABLE IF NOT EXISTS chat_states (
+                    chat_id INTEGER,
+                    platform TEXT,
+                    state INTEGER NOT NULL,
+                    updated_at INTEGER NOT NULL,
+                    PRIMARY KEY (chat_id, platform)
+                );
+            """);
+
             stmt.execute("""
                 CREATE TABLE IF NOT EXISTS bot_users (
                     user_id INTEGER,
@@ -133,28 +251,167 @@ public class DatabaseService implements AutoCloseable {
         }
     }
 
+    // Старые базы: UNIQUE(group_name, date_val) ON CONFLICT REPLACE удалял строки прямо под читателями
+    private void migrateSchedulesToGenerations(Statement stmt) throws SQLException {
+        boolean hasGeneration = false;
+        try (ResultSet rs = stmt.executeQuery("PRAGMA table_info(schedules)")) {
+            while (rs.next()) {
+                if ("generation".equals(rs.getString("name"))) hasGeneration = true;
+            }
+        }
+        if (hasGeneration) return;
+
+        System.out.println("Migrating schedules table to generations...");
+        stmt.execute("PRAGMA foreign_keys = OFF;");
+        connection.setAutoCommit(false);
+        stmt.execute("""
+            CREATE TABLE schedules_new (
+                id INTEGER PRIMARY KEY AUTOINCREMENT,
+                group_name TEXT NOT NULL,
+                date_val TEXT NOT NULL,
+                is_monday INTEGER DEFAULT 0,
+                generation INTEGER NOT NULL DEFAULT 0,
+                UNIQUE(group_name, date_val, generation) ON CONFLICT REPLACE
+            );
+        """);
+        stmt.execute("INSERT INTO schedules_new(id, group_name, date_val, is_monday, generation) SELECT id, group_name, date_val, is_monday, 0 FROM schedules");
+        stmt.execute("DROP TABLE schedules");
+        stmt.execute("ALTER TABLE schedules_new RENAME TO schedules");
+        connection.commit();
+        connection.setAutoCommit(true);
+        stmt.execute("PRAGMA foreign_keys = ON;");
+    }
+
+    // Старые базы: таблица users допускала одну подписку на чат/тред
+    private void migrateUsersToSubscriptions(Statement stmt) throws SQLException {
+        try (ResultSet rs = stmt.executeQuery("SELECT name FROM sqlite_master WHERE type = 'table' AND name = 'users'")) {
+            if (!rs.next()) return;
+        }
+
+        System.out.println("Migrating users table to subscriptions...");
+        connection.setAutoCommit(false);
+        stmt.execute("INSERT OR IGNORE INTO subscriptions(chat_id, message_thread_id, platform, sub_type, sub_value) " +
+                "SELECT chat_id, message_thread_id, platform, sub_type, sub_value FROM users WHERE sub_value IS NOT NULL");
+        stmt.execute("DROP TABLE users");
+        connection.commit();
+        connection.setAutoCommit(true);
+    }
+
+    private interface SqlWork {
+        void run() throws SQLException;
+    }
+
+    // Транзакция на общем соединении: commit или rollback целиком. Вызывается под монитором this,
+    // иначе в транзакцию попадут запросы других потоков.
+    private synchronized boolean inTransaction(String what, SqlWork work) {
+        try {
+            connection.setAutoCommit(false);
+            work.run();
+            connection.commit();
+            return true;
+        } catch (SQLException e) {
+            logger.log(Level.SEVERE, "Error " + what, e);
+            try {
+                connection.rollback();
+            } catch (SQLException ignored) {
+            }
+            return false;
+        } finally {
+            try {
+                connection.setAutoCommit(true);
+            } catch (SQLException ignored) {
+            }
+        }
+    }
+
     public void logUser(long userId, Platform platform, String username, String fullName) {
+        pendingUsers.put(new UserKey(userId, platform), new UserVisit(username, fullName, System.currentTimeMillis()));
+        if (pendingUsers.size() >= userLogBatch && userLogFlushRequested.compareAndSet(false, true)) {
+            userLogFlusher.execute(this::flushUserLog);
+        }
+    }
+
+    // Все накопленные визиты — одной транзакцией; при ошибке они возвращаются в очередь, если их не обогнал более свежий визит
+    public synchronized void flushUserLog() {
+        // Сбрасывается до выборки: визиты, пришедшие во время записи, могут запросить следующий сброс
+        userLogFlushRequested.set(false);
+        if (pendingUsers.isEmpty()) return;
+        List<Map.Entry<UserKey, UserVisit>> batch = new ArrayList<>(pendingUsers.size());
+        for (UserKey key : pendingUsers.keySet()) {
+            UserVisit visit = pendingUsers.remove(key);
+            if (visit != null) batch.add(Map.entry(key, visit));
+        }
+
         String sql = "INSERT INTO bot_users(user_id, platform, username, full_name, last_seen) VALUES(?, ?, ?, ?, ?) " +
                 "ON CONFLICT(user_id, platform) DO UPDATE SET " +
                 "username = excluded.username, " +
                 "full_name = excluded.full_name, " +
                 "last_seen = excluded.last_seen";
 
-        String now = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date());
+        boolean ok = inTransaction("flushing " + batch.size() + " user visits", () -> {
+            try (PreparedStatement ps = connection.prepareStatement(sql)) {
+                for (Map.Entry<UserKey, UserVisit> entry : batch) {
+                    UserVisit visit = entry.getValue();
+                    ps.setLong(1, entry.getKey().userId());
+                    ps.setString(2, entry.getKey().platform().toString());
+                    ps.setString(3, visit.username());
+                    ps.setString(4, visit.fullName());
+                    ps.setString(5, LAST_SEEN_FORMAT.format(Instant.ofEpochMilli(visit.seenAt()).atZone(ZoneId.systemDefault())));
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+            }
+        });
+        if (!ok) {
+            for (Map.Entry<UserKey, UserVisit> entry : batch) pendingUsers.putIfAbsent(entry.getKey(), entry.getValue());
+        }
+    }
 
-        try (PreparedStatement ps = connection.prepareStatement(sql)) {
-            ps.setLong(1, userId);
-            ps.setString(2, platform.toString());
-            ps.setString(3, username);
-            ps.setString(4, fullName);
-            ps.setString(5, now);
-            ps.executeUpdate();
+    public synchronized List<ChatState> loadChatStates(Platform platform, long since) {
+        List<ChatState> result = new ArrayList<>();
+        try (PreparedStatement delete = connection.prepareStatement("DELETE FROM chat_states WHERE updated_at < ?");
+             PreparedStatement ps = connection.prepareStatement("SELECT chat_id, state, updated_at FROM chat_states WHERE platform = ?")) {
+            delete.setLong(1, since);
+            delete.executeUpdate();
+            ps.setString(1, platform.toString());
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) result.add(new ChatState(rs.getLong("chat_id"), rs.getInt("state"), rs.getLong("updated_at")));
+            }
         } catch (SQLException e) {
-            e.printStackTrace();
+            logger.log(Level.SEVERE, "Error loading chat states", e);
         }
+        return result;
+    }
+
+    // Пачка целиком одной транзакцией: в autocommit SQLite делал бы отдельную транзакцию на каждую строку
+    public synchronized boolean saveChatStates(Platform platform, List<ChatState> states) {
+        if (states.isEmpty()) return true;
+        return inTransaction("saving " + states.size() + " chat states", () -> {
+            try (PreparedStatement upsert = connection.prepareStatement(
+                    "INSERT INTO chat_states(chat_id, platform, state, updated_at) VALUES(?, ?, ?, ?) " +
+                            "ON CONFLICT(chat_id, platform) DO UPDATE SET state = excluded.state, updated_at = excluded.updated_at");
+                 PreparedStatement delete = connection.prepareStatement("DELETE FROM chat_states WHERE chat_id = ? AND platform = ?")) {
+                for (ChatState st : states) {
+                    if (st.state() == 0) {
+                        delete.setLong(1, st.chatId());
+                        delete.setString(2, platform.toString());
+                        delete.addBatch();
+                    } else {
+                        upsert.setLong(1, st.chatId());
+                        upsert.setString(2, platform.toString());
+                        upsert.setInt(3, st.state());
+                        upsert.setLong(4, st.updatedAt());
+                        upsert.addBatch();
+                    }
+                }
+                upsert.executeBatch();
+                delete.executeBatch();
+            }
+        });
     }
 
-    public String getUsersStats() {
+    public synchronized String getUsersStats() {
+        flushUserLog();
         int total = 0;
         int tg = 0;
         int vk = 0;
@@ -168,10 +425,11 @@ public class DatabaseService implements AutoCloseable {
                 if ("VK".equals(p)) vk = c;
             }
         } catch (SQLException e) { return "Ошибка получения статистики."; }
-        return String.format("📊 Всего пользователей: %d\n✈️ Telegram: %d\n🔵 VK: %d", total, tg, vk);
+        return String.format("📊 Всего пользователей: %d\n✈️ Telegram: %d\n🔵 VK: %d\n\n%s", total, tg, vk, responseCache.stats());
     }
 
-    public String getAllUsersReport() {
+    public synchronized String getAllUsersReport() {
+        flushUserLog();
         StringBuilder sb = new StringBuilder();
         sb.append("ID | PLATFORM | USERNAME | NAME | LAST SEEN\n");
         sb.append("-".repeat(60)).append("\n");
@@ -194,8 +452,9 @@ public class DatabaseService implements AutoCloseable {
         return sb.toString();
     }
 
-    public void updateBells(BellParser.BellsData data) {
+    public synchronized void updateBells(BellParser.BellsData data) {
         if (data.normal.isEmpty() && data.monday.isEmpty()) return;
+        if (currentBells != null && currentBells.normal.equals(data.normal) && currentBells.monday.equals(data.monday)) return;
 
         Set<Integer> allPairs = new HashSet<>();
         allPairs.addAll(data.normal.keySet());
@@ -211,101 +470,426 @@ public class DatabaseService implements AutoCloseable {
                 ps.addBatch();
             }
             ps.executeBatch();
+            currentBells = data;
+            bellTable = BellTable.from(data);
+            responseCache.clear();
         } catch (SQLException e) {
             e.printStackTrace();
+            return;
         }
+        writeSnapshot();
     }
 
     private String getBellTime(int pairNumber, boolean isMonday) {
-        String col = isMonday ? "time_monday" : "time_normal";
-        String sql = "SELECT " + col + " FROM bells WHERE pair_number = ?";
+        BellParser.BellsData bells = currentBells;
+        if (bells == null) return null;
+        return (isMonday ? bells.monday : bells.normal).get(pairNumber);
+    }
+
+    private void loadBells() throws SQLException {
+        BellParser.BellsData data = new BellParser.BellsData();
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT pair_number, time_normal, time_monday FROM bells")) {
+            while (rs.next()) {
+                int pair = rs.getInt("pair_number");
+                if (rs.getString("time_normal") != null) data.normal.put(pair, rs.getString("time_normal"));
+                if (rs.getString("time_monday") != null) data.monday.put(pair, rs.getString("time_monday"));
+            }
+        }
+        if (!data.normal.isEmpty() || !data.monday.isEmpty()) {
+            currentBells = data;
+            bellTable = BellTable.from(data);
+        }
+    }
+
+    private long recoverPublishedGeneration() throws SQLException {
+        long generation = 0;
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT value FROM meta WHERE key = 'published_generation'")) {
+            if (rs.next()) generation = rs.getLong(1);
+        }
+        // Недописанное поколение (падение посреди цикла) выбрасываем
+        try (PreparedStatement ps = connection.prepareStatement("DELETE FROM schedules WHERE generation > ?")) {
+            ps.setLong(1, generation);
+            ps.executeUpdate();
+        }
+        deleteSupersededRows(generation);
+        return generation;
+    }
+
+    // Снимок годится, только если он от того же поколения, что опубликовано в базе
+    private boolean loadSnapshot(long generation) {
+        if (snapshotPath == null) return false;
+        long start = System.currentTimeMillis();
+        SnapshotFile.Contents contents;
+        try {
+            contents = SnapshotFile.read(snapshotPath);
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Snapshot " + snapshotPath + " unreadable: " + e.getMessage());
+            return false;
+        }
+        if (contents == null) return false;
+        if (contents.generation() != generation) {
+            System.out.println("Snapshot is for generation " + contents.generation() + ", database has " + generation + ", loading from SQLite");
+            return false;
+        }
+
+        if (!contents.bells().normal.isEmpty() || !contents.bells().monday.isEmpty()) {
+            currentBells = contents.bells();
+            bellTable = BellTable.from(contents.bells());
+        }
+        ScheduleIndex loaded = contents.index();
+        publishLoaded(generation, loaded);
+        responseCache.restore(contents.responses());
+        // Списки для клавиатур и поиска считаются сразу, а не на первом запросе
+        loaded.getAllGroups();
+        loaded.getAllTeachers();
+        loaded.getActiveRooms();
+        System.out.println("Schedule snapshot loaded: generation " + generation + ", " + loaded.getGroupDays().size()
+                + " group days, " + contents.responses().size() + " cached responses in " + (System.currentTimeMillis() - start) + "ms");
+        return true;
+    }
+
+    private synchronized void writeSnapshot() {
+        if (snapshotPath == null) return;
+        long start = System.currentTimeMillis();
+        ScheduleSnapshot snapshot = published.get();
+        BellParser.BellsData bells = currentBells;
+        try {
+            SnapshotFile.write(snapshotPath, new SnapshotFile.Contents(snapshot.generation(),
+                    bells == null ? new BellParser.BellsData() : bells, snapshot.index(), responseCache.export(Integer.MAX_VALUE)));
+            System.out.println("Schedule snapshot written in " + (System.currentTimeMillis() - start) + "ms");
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Error writing schedule snapshot", e);
+        }
+    }
+
+    private void publishLoaded(long generation, ScheduleIndex loaded) {
+        published.set(new ScheduleSnapshot(generation, loaded));
+        synchronized (this) {
+            stagingIndex = loaded;
+            stagingGeneration = generation + 1;
+        }
+    }
+
+    private void loadIndex(long generation) throws SQLException {
+        long start = System.currentTimeMillis();
+
+        Map<Long, DaySchedule> schedules = new HashMap<>();
+        Map<Long, String[]> scheduleKeys = new LinkedHashMap<>();
+        Map<Long, Lesson> lessons = new HashMap<>();
+
+        try (Statement stmt = connection.createStatement()) {
+            try (ResultSet rs = stmt.executeQuery("SELECT id, group_name, date_val, is_monday FROM schedules ORDER BY id")) {
+                while (rs.next()) {
+                    DaySchedule ds = new DaySchedule();
+                    ds.setMonday(rs.getInt("is_monday") == 1);
+                    schedules.put(rs.getLong("id"), ds);
+                    scheduleKeys.put(rs.getLong("id"), new String[]{rs.getString("group_name"), rs.getString("date_val")});
+                }
+            }
+            try (ResultSet rs = stmt.executeQuery("SELECT id, schedule_id, pair_number, subject, start_time, raw_text FROM lessons ORDER BY id")) {
+                while (rs.next()) {
+                    DaySchedule ds = schedules.get(rs.getLong("schedule_id"));
+                    if (ds == null) continue;
+                    Lesson lesson = new Lesson();
+                    lesson.setSubject(rs.getString("subject"));
+                    lesson.setStartTime(rs.getString("start_time"));
+                    lesson.setRaw(rs.getString("raw_text"));
+                    ds.getPeriods().computeIfAbsent(rs.getInt("pair_number"), k -> {
+                        Period p = new Period();
+                        p.setNumber(k);
+                        return p;
+                    }).getLessons().add(lesson);
+                    lessons.put(rs.getLong("id"), lesson);
+                }
+            }
+            try (ResultSet rs = stmt.executeQuery("SELECT lesson_id, name FROM lesson_teachers")) {
+                while (rs.next()) {
+                    Lesson lesson = lessons.get(rs.getLong(1));
+                    if (lesson != null) lesson.getTeachers().add(rs.getString(2));
+                }
+            }
+            try (ResultSet rs = stmt.executeQuery("SELECT lesson_id, room_number FROM lesson_rooms")) {
+                while (rs.next()) {
+                    Lesson lesson = lessons.get(rs.getLong(1));
+                    if (lesson != null) lesson.getRooms().add(rs.getInt(2));
+                }
+            }
+            try (ResultSet rs = stmt.executeQuery("SELECT lesson_id, label FROM lesson_labels")) {
+                while (rs.next()) {
+                    Lesson lesson = lessons.get(rs.getLong(1));
+                    if (lesson != null) lesson.getLabels().add(rs.getString(2));
+                }
+            }
+        }
+
+        List<ScheduleIndex.GroupDay> groupDays = new ArrayList<>();
+        for (Map.Entry<Long, String[]> entry : scheduleKeys.entrySet()) {
+            String[] key = entry.getValue();
+            groupDays.add(ScheduleIndex.toGroupDay(key[0], key[1], schedules.get(entry.getKey()), entry.getKey()));
+        }
+        ScheduleIndex loaded = ScheduleIndex.build(groupDays);
+        publishLoaded(generation, loaded);
+        System.out.println("Schedule index loaded: generation " + generation + ", " + groupDays.size() + " group days in " + (System.currentTimeMillis() - start) + "ms");
+    }
+
+    private void deleteSupersededRows(long generation) throws SQLException {
+        String sql = """
+            DELETE FROM schedules WHERE generation < (
+                SELECT MAX(s2.generation) FROM schedules s2
+                WHERE s2.group_name = schedules.group_name AND s2.date_val = schedules.date_val AND s2.generation <= ?
+            )
+            """;
         try (PreparedStatement ps = connection.prepareStatement(sql)) {
-            ps.setInt(1, pairNumber);
-            ResultSet rs = ps.executeQuery();
-            if (rs.next()) return rs.getString(1);
-        } catch (SQLException ignored) {}
-        return null;
+            ps.setLong(1, generation);
+            ps.executeUpdate();
+        }
+    }
+
+    private void loadSubscriptions() throws SQLException {
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT chat_id, message_thread_id, platform, sub_type, sub_value FROM subscriptions")) {
+            int count = 0;
+            while (rs.next()) {
+                subscriberRegistry.add(readSubscription(rs));
+                count++;
+            }
+            System.out.println("Loaded " + count + " subscriptions");
+        }
+    }
+
+    private static Subscription readSubscription(ResultSet rs) throws SQLException {
+        int tid = rs.getInt("message_thread_id");
+        Subscriber sub = new Subscriber(rs.getLong("chat_id"), tid == 0 ? null : tid, rs.getString("platform"));
+        return new Subscription(sub, rs.getInt("sub_type"), rs.getString("sub_value"));
     }
 
     public void subscribeUser(long chatId, Integer threadId, int type, String value, Platform platform) throws SQLException {
         int tid = (threadId == null) ? 0 : threadId;
         String plat = (platform == null) ? "TG" : platform.toString();
 
-        String sql = "INSERT INTO users(chat_id, message_thread_id, sub_type, sub_value, platform) VALUES(?, ?, ?, ?, ?) " +
-                "ON CONFLICT(chat_id, message_thread_id, platform) DO UPDATE SET sub_type=excluded.sub_type, sub_value=excluded.sub_value";
+        String sql = "INSERT OR IGNORE INTO subscriptions(chat_id, message_thread_id, platform, sub_type, sub_value) VALUES(?, ?, ?, ?, ?)";
+        synchronized (this) {
+            try (PreparedStatement ps = connection.prepareStatement(sql)) {
+                ps.setLong(1, chatId);
+                ps.setInt(2, tid);
+                ps.setString(3, plat);
+                ps.setInt(4, type);
+                ps.setString(5, value);
+                ps.executeUpdate();
+            }
+        }
+        Subscriber subscriber = new Subscriber(chatId, tid == 0 ? null : tid, plat);
+        subscriberRegistry.add(new Subscription(subscriber, type, value));
+        fireSubscriptionChanged(subscriber);
+    }
+
+    // Снимает одну подписку; false — такой подписки не было
+    public boolean unsubscribeUser(long chatId, Integer threadId, int type, String value, Platform platform) throws SQLException {
+        int tid = (threadId == null) ? 0 : threadId;
+        String plat = (platform == null) ? "TG" : platform.toString();
+
+        String sql = "DELETE FROM subscriptions WHERE chat_id = ? AND message_thread_id = ? AND platform = ? AND sub_type = ? AND sub_value = ?";
+        synchronized (this) {
+            try (PreparedStatement ps = connection.prepareStatement(sql)) {
+                ps.setLong(1, chatId);
+                ps.setInt(2, tid);
+                ps.setString(3, plat);
+                ps.setInt(4, type);
+                ps.setString(5, value);
+                if (ps.executeUpdate() == 0) return false;
+            }
+        }
+        Subscriber subscriber = new Subscriber(chatId, tid == 0 ? null : tid, plat);
+        subscriberRegistry.remove(new Subscription(subscriber, type, value));
+        fireSubscriptionChanged(subscriber);
+        return true;
+    }
+
+    public void unsubscribeUser(long chatId, Integer threadId, Platform platform) {
+        int tid = (threadId == null) ? 0 : threadId;
+        String plat = (platform == null) ? "TG" : platform.toString();
+
+        String sql = "DELETE FROM subscriptions WHERE chat_id = ? AND message_thread_id = ? AND platform = ?";
+        int rows;
+        synchronized (this) {
+            try (PreparedStatement ps = connection.prepareStatement(sql)) {
+                ps.setLong(1, chatId);
+                ps.setInt(2, tid);
+                ps.setString(3, plat);
+                rows = ps.executeUpdate();
+            } catch (SQLException e) {
+                logger.log(Level.SEVERE, "Error unsubscribing user", e);
+                return;
+            }
+        }
+        if (rows > 0) {
+            System.out.println("User unsubscribed/removed: " + chatId + " (Thread: " + tid + ", " + plat + ")");
+            Subscriber subscriber = new Subscriber(chatId, tid == 0 ? null : tid, plat);
+            subscriberRegistry.removeAll(subscriber);
+            fireSubscriptionChanged(subscriber);
+        }
+    }
+
+    public synchronized List<Subscription> getUserSubscriptions(long chatId, Integer threadId, Platform platform) throws SQLException {
+        int tid = (threadId == null) ? 0 : threadId;
+        String plat = (platform == null) ? "TG" : platform.toString();
+
+        List<Subscription> list = new ArrayList<>();
+        String sql = "SELECT chat_id, message_thread_id, platform, sub_type, sub_value FROM subscriptions " +
+                "WHERE chat_id = ? AND message_thread_id = ? AND platform = ? ORDER BY sub_type, sub_value";
         try (PreparedStatement ps = connection.prepareStatement(sql)) {
             ps.setLong(1, chatId);
             ps.setInt(2, tid);
-            ps.setInt(3, type);
-            ps.setString(4, value);
-            ps.setString(5, plat);
-            ps.executeUpdate();
+            ps.setString(3, plat);
+            ResultSet rs = ps.executeQuery();
+            while (rs.next()) list.add(readSubscription(rs));
         }
+        return list;
     }
 
-    public void unsubscribeUser(long chatId, Integer threadId, Platform platform) {
+    public void addSubscriptionListener(Consumer<Subscriber> listener) {
+        subscriptionListeners.add(listener);
+    }
+
+    private void fireSubscriptionChanged(Subscriber subscriber) {
+        for (Consumer<Subscriber> listener : subscriptionListeners) {
+            try {
+                listener.accept(subscriber);
+            } catch (RuntimeException e) {
+                logger.log(Level.WARNING, "Subscription listener failed", e);
+            }
+        }
+    }
+
+    // minutesBefore <= 0 отключает напоминания
+    public void setReminder(long chatId, Integer threadId, Platform platform, int minutesBefore) throws SQLException {
+        int tid = (threadId == null) ? 0 : threadId;
+        String plat = (platform == null) ? "TG" : platform.toString();
+
+        synchronized (this) {
+            if (minutesBefore <= 0) {
+                try (PreparedStatement ps = connection.prepareStatement("DELETE FROM reminders WHERE chat_id = ? AND message_thread_id = ? AND platform = ?")) {
+                    ps.setLong(1, chatId);
+                    ps.setInt(2, tid);
+                    ps.setString(3, plat);
+                    ps.executeUpdate();
+                }
+            } else {
+                String sql = "INSERT INTO reminders(chat_id, message_thread_id, platform, minutes_before) VALUES(?, ?, ?, ?) " +
+                        "ON CONFLICT(chat_id, message_thread_id, platform) DO UPDATE SET minutes_before=excluded.minutes_before";
+                try (PreparedStatement ps = connection.prepareStatement(sql)) {
+                    ps.setLong(1, chatId);
+                    ps.setInt(2, tid);
+                    ps.setString(3, plat);
+                    ps.setInt(4, minutesBefore);
+                    ps.executeUpdate();
+                }
+            }
+        }
+        fireSubscriptionChanged(new Subscriber(chatId, tid == 0 ? null : tid, plat));
+    }
+
+    public synchronized void setDigest(long chatId, Integer threadId, Platform platform, boolean enabled) throws SQLException {
         int tid = (threadId == null) ? 0 : threadId;
         String plat = (platform == null) ? "TG" : platform.toString();
 
-        String sql = "DELETE FROM users WHERE chat_id = ? AND message_thread_id = ? AND platform = ?";
+        String sql = enabled
+                ? "INSERT OR IGNORE INTO digests(chat_id, message_thread_id, platform) VALUES(?, ?, ?)"
+                : "DELETE FROM digests WHERE chat_id = ? AND message_thread_id = ? AND platform = ?";
         try (PreparedStatement ps = connection.prepareStatement(sql)) {
             ps.setLong(1, chatId);
             ps.setInt(2, tid);
             ps.setString(3, plat);
-            int rows = ps.executeUpdate();
-            if (rows > 0) {
-                System.out.println("User unsubscribed/removed: " + chatId + " (Thread: " + tid + ", " + plat + ")");
-            }
+            ps.executeUpdate();
+        }
+    }
+
+    public synchronized boolean isDigestEnabled(long chatId, Integer threadId, Platform platform) throws SQLException {
+        int tid = (threadId == null) ? 0 : threadId;
+        String plat = (platform == null) ? "TG" : platform.toString();
+
+        try (PreparedStatement ps = connection.prepareStatement("SELECT 1 FROM digests WHERE chat_id = ? AND message_thread_id = ? AND platform = ?")) {
+            ps.setLong(1, chatId);
+            ps.setInt(2, tid);
+            ps.setString(3, plat);
+            return ps.executeQuery().next();
+        }
+    }
+
+    public synchronized List<Subscription> getDigestSubscriptions() {
+        List<Subscription> list = new ArrayList<>();
+        String sql = "SELECT s.chat_id, s.message_thread_id, s.platform, s.sub_type, s.sub_value FROM digests d " +
+                "JOIN subscriptions s ON s.chat_id = d.chat_id AND s.message_thread_id = d.message_thread_id AND s.platform = d.platform";
+        try (Statement stmt = connection.createStatement(); ResultSet rs = stmt.executeQuery(sql)) {
+            while (rs.next()) list.add(readSubscription(rs));
         } catch (SQLException e) {
-            logger.log(Level.SEVERE, "Error unsubscribing user", e);
+            logger.log(Level.SEVERE, "Error getting digest subscriptions", e);
         }
+        return list;
     }
 
-    public String[] getUserSubscription(long chatId, Integer threadId, Platform platform) throws SQLException {
+    // 0 — напоминания выключены
+    public synchronized int getReminderMinutes(long chatId, Integer threadId, Platform platform) throws SQLException {
         int tid = (threadId == null) ? 0 : threadId;
         String plat = (platform == null) ? "TG" : platform.toString();
 
-        String sql = "SELECT sub_type, sub_value FROM users WHERE chat_id = ? AND message_thread_id = ? AND platform = ?";
-        try (PreparedStatement ps = connection.prepareStatement(sql)) {
+        try (PreparedStatement ps = connection.prepareStatement("SELECT minutes_before FROM reminders WHERE chat_id = ? AND message_thread_id = ? AND platform = ?")) {
             ps.setLong(1, chatId);
             ps.setInt(2, tid);
             ps.setString(3, plat);
             ResultSet rs = ps.executeQuery();
-            if (rs.next()) {
-                return new String[]{String.valueOf(rs.getInt(1)), rs.getString(2)};
-            }
+            return rs.next() ? rs.getInt(1) : 0;
         }
-        return null;
     }
 
-    public List<Subscriber> getSubscribers(String targetValue, int type) {
-        List<Subscriber> subs = new ArrayList<>();
-        String sql = getString(type);
+    public List<ReminderSubscription> getReminderSubscriptions(Subscriber subscriber) {
+        int tid = subscriber.messageThreadId() == null ? 0 : subscriber.messageThreadId();
+        return queryReminderSubscriptions(" WHERE r.chat_id = ? AND r.message_thread_id = ? AND r.platform = ?", ps -> {
+            ps.setLong(1, subscriber.chatId());
+            ps.setInt(2, tid);
+            ps.setString(3, subscriber.platform());
+        });
+    }
 
-        try (PreparedStatement ps = connection.prepareStatement(sql)) {
-            ps.setString(1, targetValue);
+    public List<ReminderSubscription> getReminderSubscriptions() {
+        return queryReminderSubscriptions("", _ -> {});
+    }
 
+    @FunctionalInterface
+    private interface StatementBinder {
+        void bind(PreparedStatement ps) throws SQLException;
+    }
+
+    private synchronized List<ReminderSubscription> queryReminderSubscriptions(String where, StatementBinder binder) {
+        List<ReminderSubscription> list = new ArrayList<>();
+        String sql = "SELECT s.chat_id, s.message_thread_id, s.platform, s.sub_type, s.sub_value, r.minutes_before FROM reminders r " +
+                "JOIN subscriptions s ON s.chat_id = r.chat_id AND s.message_thread_id = r.message_thread_id AND s.platform = r.platform" + where;
+        try (PreparedStatement ps = connection.prepareStatement(sql)) {
+            binder.bind(ps);
             ResultSet rs = ps.executeQuery();
-            while (rs.next()) {
-                long chatId = rs.getLong("chat_id");
-                int threadId = rs.getInt("message_thread_id");
-                String platform = rs.getString("platform");
-                subs.add(new Subscriber(chatId, threadId == 0 ? null : threadId, platform));
-            }
+            while (rs.next()) list.add(new ReminderSubscription(readSubscription(rs), rs.getInt("minutes_before")));
         } catch (SQLException e) {
-            logger.log(Level.SEVERE, "Error getting subscribers", e);
+            logger.log(Level.SEVERE, "Error getting reminders", e);
         }
-        return subs;
+        return list;
     }
 
-    private static String getString(int type) {
-        String sql;
-        if (type == 1) {
-            sql = "SELECT chat_id, message_thread_id, platform FROM users WHERE ? LIKE sub_value || '%' AND sub_type = 1";
-        } else {
-            sql = "SELECT chat_id, message_thread_id, platform FROM users WHERE sub_value = ? AND sub_type = 0";
+    public List<Subscriber> getSubscribers(String targetValue, int type) {
+        BitSet bits = type == 1
+                ? subscriberRegistry.teacherSubscribers(targetValue)
+                : subscriberRegistry.groupSubscribers(List.of(targetValue));
+        return subscriberRegistry.resolve(bits);
+    }
+
+    // Значение подписки на преподавателя -> её подписчики, для всех изменившихся преподавателей разом
+    public Map<String, List<Subscriber>> getTeacherSubscribers(Set<String> teacherNames) {
+        Map<String, List<Subscriber>> result = new TreeMap<>();
+        for (Map.Entry<String, BitSet> entry : subscriberRegistry.teacherTargets(teacherNames).entrySet()) {
+            result.put(entry.getKey(), subscriberRegistry.resolve(entry.getValue()));
         }
-        return sql;
+        return result;
     }
 
     private String convertDateToRussianText(String inputDate) {
@@ -327,296 +911,448 @@ public class DatabaseService implements AutoCloseable {
         return null;
     }
 
-    public String getScheduleByGroup(String groupName) {
+    public ScheduleView getScheduleByGroup(String groupName) {
         return getScheduleByGroup(groupName, null);
     }
 
-    public String getScheduleByGroup(String groupName, String date) {
-        StringBuilder sb = new StringBuilder();
-        String sql;
+    public ScheduleView getScheduleByGroup(String groupName, String date) {
+        return cached(ResponseCache.Kind.GROUP, groupName, date, () -> loadScheduleByGroup(groupName, date));
+    }
 
-        String textDate = convertDateToRussianText(date);
+    private ScheduleView loadScheduleByGroup(String groupName, String date) {
+        ScheduleIndex idx = index();
+        ScheduleIndex.GroupDay found;
 
         if (date != null && !date.isEmpty()) {
-            sql = "SELECT id, date_val, is_monday FROM schedules WHERE group_name LIKE ? AND (date_val LIKE ? OR date_val LIKE ?) ORDER BY id DESC LIMIT 1";
+            String textDate = convertDateToRussianText(date);
+            found = null;
+            for (ScheduleIndex.Day day : idx.getDays().values()) {
+                if (!day.getDate().contains(date) && !day.getDate().contains(textDate != null ? textDate : date)) continue;
+                ScheduleIndex.GroupDay candidate = idx.findGroup(groupName, day);
+                if (candidate != null && (found == null || candidate.seq() > found.seq())) found = candidate;
+            }
         } else {
-            sql = "SELECT id, date_val, is_monday FROM schedules WHERE group_name LIKE ? ORDER BY id DESC LIMIT 1";
+            found = idx.findGroup(groupName, null);
         }
 
-        try (PreparedStatement ps = connection.prepareStatement(sql)) {
-            ps.setString(1, "%" + groupName + "%");
+        if (found == null) {
             if (date != null && !date.isEmpty()) {
-                ps.setString(2, "%" + date + "%");
-                ps.setString(3, "%" + (textDate != null ? textDate : date) + "%");
+                return ScheduleView.plain("Расписание для группы '" + groupName + "' на дату '" + date + "' не найдено.");
             }
+            return ScheduleView.plain("Расписание для группы '" + groupName + "' не найдено.");
+        }
 
-            ResultSet rs = ps.executeQuery();
+        ScheduleView.Builder view = ScheduleView.builder().date(found.date());
+        view.text("📅 ").bold(found.date()).text(" (" + groupName + ")\n");
+        if (found.monday()) view.italic("(Понедельник)").text("\n");
+        view.text("\n");
 
-            if (rs.next()) {
-                long scheduleId = rs.getLong("id");
-                String foundDate = rs.getString("date_val");
-                boolean isMonday = rs.getInt("is_monday") == 1;
+        for (ScheduleIndex.LessonEntry lesson : found.lessons()) formatLesson(view, lesson, found.monday());
+        return view.build();
+    }
 
-                sb.append("📅 <b>").append(foundDate).append("</b> (").append(groupName).append(")\n");
-                if (isMonday) sb.append("<i>(Понедельник)</i>\n");
-                sb.append("\n");
+    public ScheduleView getScheduleByTeacher(String teacherName) {
+        return getScheduleByTeacher(teacherName, null);
+    }
 
-                appendLessons(sb, scheduleId, isMonday);
-            } else {
-                if (date != null && !date.isEmpty()) {
-                    return "Расписание для группы '" + groupName + "' на дату '" + date + "' не найдено.";
+    public ScheduleView getScheduleByTeacher(String teacherName, String date) {
+        return cached(ResponseCache.Kind.TEACHER, teacherName, date, () -> loadScheduleByTeacher(teacherName, date));
+    }
+
+    private ScheduleView loadScheduleByTeacher(String teacherName, String date) {
+        ScheduleIndex idx = index();
+        ScheduleIndex.Day day = resolveDay(idx, date);
+        if (day == null) return dayNotFound(idx, date);
+
+        // Как GROUP BY pair, subject, start_time, group: одинаковые занятия склеиваются, кабинеты объединяются
+        TreeMap<Integer, TreeMap<String, TreeSet<Integer>>> grouped = new TreeMap<>();
+        Map<String, String[]> keyParts = new HashMap<>();
+        for (ScheduleIndex.LessonEntry lesson : idx.findByTeacher(day, teacherName)) {
+            String subject = lesson.subject().trim();
+            String key = subject + "\u0000" + Objects.toString(lesson.startTime(), "") + "\u0000" + lesson.group();
+            keyParts.putIfAbsent(key, new String[]{subject, lesson.group()});
+            grouped.computeIfAbsent(lesson.pair(), _ -> new TreeMap<>())
+                    .computeIfAbsent(key, _ -> new TreeSet<>())
+                    .addAll(lesson.rooms());
+        }
+
+        TreeMap<Integer, List<ScheduleView>> lessonsByPair = new TreeMap<>();
+        grouped.forEach((pair, lessons) -> lessons.forEach((key, rooms) -> {
+            String[] parts = keyParts.get(key);
+            String roomStr = rooms.isEmpty() ? "" : " [Каб: " + joinAll(rooms, ", ") + "]";
+            ScheduleView line = ScheduleView.builder().text(parts[0] + " — ").bold(parts[1]).text(roomStr).build();
+            lessonsByPair.computeIfAbsent(pair, _ -> new ArrayList<>()).add(line);
+        }));
+
+        ScheduleView.Builder view = ScheduleView.builder().date(day.getDate());
+        if (lessonsByPair.isEmpty()) {
+            return view.text("На ").bold(day.getDate()).text(" у преподавателя ").bold(teacherName).text(" пар нет.").build();
+        }
+
+        view.text("🗓 Расписание:\n📅 ").bold(day.getDate()).text("\n");
+        view.text("Преподаватель: ").bold(teacherName).text("\n\n");
+
+        appendFormattedMap(view, lessonsByPair, day.isMonday());
+        return view.build();
+    }
+
+    // Неделя (пн–сб), в которую попадает date; цель — группа, преподаватель или номер кабинета
+    // Свободный текст из /week <арг>: вид запроса угадывается — номер кабинета, группа, иначе преподаватель
+    public ScheduleView getWeekSchedule(String target, String date) {
+        String query = target.trim();
+        ResponseCache.Kind kind = query.matches("\\d{1,6}") ? ResponseCache.Kind.ROOM
+                : index().findGroup(query, null) != null ? ResponseCache.Kind.GROUP
+                : ResponseCache.Kind.TEACHER;
+        return getWeekSchedule(kind, query, date);
+    }
+
+    // Вид известен заранее (подписка) — без угадывания
+    public ScheduleView getWeekSchedule(ResponseCache.Kind kind, String target, String date) {
+        LocalDate anchor = parseUserDate(date);
+        if (anchor == null) return ScheduleView.plain("Не удалось разобрать дату " + date + ". Пример: /week 1-ИП-2 15.12.2025");
+        LocalDate monday = anchor.with(DayOfWeek.MONDAY);
+
+        String query = target.trim();
+
+        ResponseCache.Key key = ResponseCache.Key.of(ResponseCache.Kind.WEEK, kind + ":" + query, monday.toString());
+        ScheduleView view = responseCache.get(key);
+        if (view != null) return view;
+
+        // Как в cached(): сначала версия, потом индекс — неделя со старого индекса не ляжет под новую версию
+        long version = responseCache.version();
+        Set<String> tokens = new HashSet<>();
+        view = loadWeek(index(), kind, query, monday, tokens);
+        responseCache.put(key, view, version, tokens);
+        return view;
+    }
+
+    private ScheduleView loadWeek(ScheduleIndex idx, ResponseCache.Kind kind, String query, LocalDate monday, Set<String> tokens) {
+        DateTimeFormatter shortDate = DateTimeFormatter.ofPattern("dd.MM");
+        String title = kind == ResponseCache.Kind.ROOM ? "Кабинет " + query : query;
+
+        ScheduleView.Builder view = ScheduleView.builder();
+        view.text("🗓 Неделя " + monday.format(shortDate) + "–" + monday.plusDays(5).format(shortDate) + "\n").bold(title).text("\n\n");
+
+        for (int i = 0; i < WEEKDAYS_SHORT.length; i++) {
+            LocalDate date = monday.plusDays(i);
+            String token = date.format(DateTimeFormatter.ofPattern("dd.MM.yyyy"));
+            String textToken = convertDateToRussianText(token);
+            tokens.add(token);
+            tokens.add(textToken);
+
+            view.bold(WEEKDAYS_SHORT[i] + ", " + date.format(shortDate)).text("\n");
+            ScheduleIndex.Day day = idx.findDay(token, textToken);
+            if (day == null) {
+                view.italic("нет расписания").text("\n\n");
+                continue;
+            }
+
+            List<ScheduleIndex.LessonEntry> lessons = switch (kind) {
+                case GROUP -> {
+                    ScheduleIndex.GroupDay groupDay = idx.findGroup(query, day);
+                    yield groupDay == null ? List.of() : groupDay.lessons();
                 }
-                return "Расписание для группы '" + groupName + "' не найдено.";
+                case TEACHER -> idx.findByTeacher(day, query);
+                default -> idx.findByRoom(day, Integer.parseInt(query));
+            };
+            if (lessons.isEmpty()) {
+                view.text("—\n\n");
+                continue;
             }
-        } catch (SQLException e) {
-            return "Ошибка БД: " + e.getMessage();
+
+            List<ScheduleIndex.LessonEntry> sorted = new ArrayList<>(lessons);
+            sorted.sort(Comparator.comparingInt(ScheduleIndex.LessonEntry::pair));
+            for (ScheduleIndex.LessonEntry lesson : sorted) {
+                view.text(lesson.pair() + " · " + lesson.subject());
+                if (kind != ResponseCache.Kind.GROUP) view.text(" — " + lesson.group());
+                if (kind != ResponseCache.Kind.ROOM && !lesson.rooms().isEmpty()) view.text(" [" + joinAll(lesson.rooms(), ",") + "]");
+                view.text("\n");
+            }
+            view.text("\n");
         }
-        return sb.toString();
+        return view.build();
     }
 
-    public String getScheduleByTeacher(String teacherName) {
-        return getScheduleByTeacher(teacherName, null);
+    // null — дату не удалось разобрать; пустая строка — сегодня
+    private LocalDate parseUserDate(String input) {
+        if (input == null || input.isBlank()) return LocalDate.now(zone);
+        try {
+            Matcher m = RE_USER_DATE_NUMERIC.matcher(input.trim());
+            if (m.find()) {
+                int year = Integer.parseInt(m.group(3));
+                if (year < 100) year += 2000;
+                return LocalDate.of(year, Integer.parseInt(m.group(2)), Integer.parseInt(m.group(1)));
+            }
+            m = RE_USER_DATE_TEXT.matcher(input.trim());
+            if (m.find()) {
+                String month = m.group(2).toLowerCase();
+                int year = m.group(3) != null ? Integer.parseInt(m.group(3)) : LocalDate.now(zone).getYear();
+                for (int i = 0; i < MONTHS_GENITIVE.length; i++) {
+                    if (month.length() >= 3 && MONTHS_GENITIVE[i].startsWith(month.substring(0, 3))) {
+                        return LocalDate.of(year, i + 1, Integer.parseInt(m.group(1)));
+                    }
+                }
+            }
+        } catch (DateTimeException ignored) {}
+        return null;
     }
 
-    public String getScheduleByTeacher(String teacherName, String date) {
-        StringBuilder sb = new StringBuilder();
-        String targetDate;
-        boolean isMonday;
-        String textDate = convertDateToRussianText(date);
+    public ScheduleView getScheduleByRoom(int roomNumber) {
+        return getScheduleByRoom(roomNumber, null);
+    }
+
+    public ScheduleView getScheduleByRoom(int roomNumber, String date) {
+        return cached(ResponseCache.Kind.ROOM, String.valueOf(roomNumber), date, () -> loadScheduleByRoom(roomNumber, date));
+    }
+
+    private ScheduleView loadScheduleByRoom(int roomNumber, String date) {
+        ScheduleIndex idx = index();
+        ScheduleIndex.Day day = resolveDay(idx, date);
+        if (day == null) return dayNotFound(idx, date);
+
+        TreeMap<Integer, TreeMap<String, TreeSet<String>>> grouped = new TreeMap<>();
+        Map<String, String[]> keyParts = new HashMap<>();
+        for (ScheduleIndex.LessonEntry lesson : idx.findByRoom(day, roomNumber)) {
+            String subject = lesson.subject().trim();
+            String key = subject + "\u0000" + lesson.group();
+            keyParts.putIfAbsent(key, new String[]{subject, lesson.group()});
+            grouped.computeIfAbsent(lesson.pair(), _ -> new TreeMap<>())
+                    .computeIfAbsent(key, _ -> new TreeSet<>())
+                    .addAll(lesson.teachers());
+        }
+
+        TreeMap<Integer, List<ScheduleView>> lessonsByPair = new TreeMap<>();
+        grouped.forEach((pair, lessons) -> lessons.forEach((key, teachers) -> {
+            String[] parts = keyParts.get(key);
+            String teacherStr = teachers.isEmpty() ? "" : " (" + String.join(", ", teachers) + ")";
+            ScheduleView line = ScheduleView.builder().text(parts[0] + " — ").bold(parts[1]).text(teacherStr).build();
+            lessonsByPair.computeIfAbsent(pair, _ -> new ArrayList<>()).add(line);
+        }));
+
+        ScheduleView.Builder view = ScheduleView.builder().date(day.getDate());
+        if (lessonsByPair.isEmpty()) {
+            return view.text("На ").bold(day.getDate()).text(" в кабинете ").bold(roomNumber).text(" пар нет.").build();
+        }
+
+        view.text("🗓 Расписание:\n📅 ").bold(day.getDate()).text("\n");
+        view.text("Кабинет: ").bold(roomNumber).text("\n\n");
+        appendFormattedMap(view, lessonsByPair, day.isMonday());
+        return view.build();
+    }
+
+    public ScheduleView getFreeRooms(String pairArg, String date) {
+        ScheduleIndex idx = index();
+        String arg = pairArg == null ? "" : pairArg.trim().toLowerCase();
+        boolean now = arg.isEmpty() || arg.equals("now") || arg.equals("сейчас");
 
+        ScheduleIndex.Day day;
         if (date != null && !date.isEmpty()) {
-            String checkDateSql = "SELECT date_val, is_monday FROM schedules WHERE (date_val LIKE ? OR date_val LIKE ?) LIMIT 1";
-            try (PreparedStatement ps = connection.prepareStatement(checkDateSql)) {
-                ps.setString(1, "%" + date + "%");
-                ps.setString(2, "%" + (textDate != null ? textDate : date) + "%");
-                ResultSet rs = ps.executeQuery();
-                if (rs.next()) {
-                    targetDate = rs.getString("date_val");
-                    isMonday = rs.getInt("is_monday") == 1;
-                } else {
-                    return "Расписание на дату " + date + " не найдено в базе.";
-                }
-            } catch (SQLException e) { return "Ошибка БД при поиске даты."; }
+            day = resolveDay(idx, date);
+            if (day == null) return dayNotFound(idx, date);
         } else {
-            String latestDateSql = "SELECT date_val, is_monday FROM schedules ORDER BY id DESC LIMIT 1";
-            try (PreparedStatement ps = connection.prepareStatement(latestDateSql); ResultSet rs = ps.executeQuery()) {
-                if (!rs.next()) return "Расписание ещё не загружено.";
-                targetDate = rs.getString("date_val");
-                isMonday = rs.getInt("is_monday") == 1;
-            } catch (SQLException e) { return "Ошибка базы данных."; }
+            day = findToday(idx);
+            if (day == null && now) return ScheduleView.plain("На сегодня расписания нет. Укажите пару и дату: /free 2 12.12.2025");
+            if (day == null) day = idx.getLatestDay();
+            if (day == null) return dayNotFound(idx, null);
         }
 
-        String sql = """
-        SELECT l.pair_number, l.subject, l.start_time, s.group_name,
-               GROUP_CONCAT(DISTINCT lr.room_number ORDER BY lr.room_number) as rooms
-        FROM schedules s
-        JOIN lessons l ON s.id = l.schedule_id
-        JOIN lesson_teachers lt ON l.id = lt.lesson_id
-        LEFT JOIN lesson_rooms lr ON l.id = lr.lesson_id
-        WHERE lt.name LIKE ? AND s.date_val = ?
-        GROUP BY l.pair_number, l.subject, l.start_time, s.group_name
-        ORDER BY l.pair_number
-        """;
+        int pair;
+        if (now) {
+            BellTable.BellsInterval current = bellTable.currentOrNext(LocalTime.now(zone).toSecondOfDay() / 60, day.isMonday());
+            if (current == null) return ScheduleView.plain("Пары на сегодня закончились.");
+            pair = current.pair();
+        } else {
+            try {
+                pair = Integer.parseInt(arg);
+            } catch (NumberFormatException e) {
+                return ScheduleView.plain("Пример: /free 2 [дата] или /free now");
+            }
+        }
 
-        try (PreparedStatement ps = connection.prepareStatement(sql)) {
-            ps.setString(1, "%" + teacherName + "%");
-            ps.setString(2, targetDate);
-            ResultSet rs = ps.executeQuery();
-            TreeMap<Integer, List<String>> lessonsByPair = new TreeMap<>();
+        List<Integer> free = day.freeRooms(pair);
+        BellTable.BellsInterval interval = bellTable.get(pair, day.isMonday());
 
-            while (rs.next()) {
-                int pair = rs.getInt("pair_number");
-                String subject = rs.getString("subject").trim();
-                String group = rs.getString("group_name");
-                String rooms = rs.getString("rooms");
-                String roomStr = (rooms == null || rooms.isEmpty()) ? "" : " [Каб: " + rooms.replace(",", ", ") + "]";
-                String line = subject + " — <b>" + group + "</b>" + roomStr;
-                lessonsByPair.computeIfAbsent(pair, _ -> new ArrayList<>()).add(line);
-            }
+        ScheduleView.Builder view = ScheduleView.builder().date(day.getDate());
+        view.text("🚪 Свободные кабинеты\n📅 ").bold(day.getDate()).text(", ").bold(pair + " пара");
+        if (interval != null) view.text(" (" + BellTable.format(interval.start()) + "–" + BellTable.format(interval.end()) + ")");
+        view.text("\n\n");
+        view.text(free.isEmpty() ? "Свободных кабинетов нет." : joinAll(free, ", "));
+        return view.build();
+    }
 
-            if (lessonsByPair.isEmpty()) return "На <b>" + targetDate + "</b> у преподавателя <b>" + teacherName + "</b> пар нет.";
+    public ScheduleView getNowAndNext(int type, String target) {
+        ScheduleIndex idx = index();
+        BellTable bells = bellTable;
+        ScheduleIndex.Day day = findToday(idx);
+        if (day == null) return ScheduleView.plain("На сегодня расписания нет.");
 
-            sb.append("🗓 Расписание:\n📅 <b>").append(targetDate).append("</b>\n");
-            sb.append("Преподаватель: <b>").append(teacherName).append("</b>\n\n");
+        LessonTimeline timeline = timeline(idx, bells, day, type, target);
+        ScheduleView.Builder view = ScheduleView.builder().date(day.getDate());
+        view.text("⏱ ").bold(target).text(", " + day.getDate() + "\n\n");
+        if (timeline.isEmpty()) return view.text("Сегодня занятий нет.").build();
 
-            appendFormattedMap(sb, lessonsByPair, isMonday);
-            return sb.toString();
+        int minute = LocalTime.now(zone).toSecondOfDay() / 60;
+        LessonTimeline.Slot current = timeline.current(minute);
+        LessonTimeline.Slot next = timeline.next(minute);
 
-        } catch (SQLException e) { e.printStackTrace(); return "Ошибка при загрузке расписания."; }
+        if (current != null) {
+            view.bold("▶️ Сейчас").text(" (" + slotTime(current) + ", ещё " + (current.end() - minute) + " мин)\n");
+            appendNowLessons(view, current, type);
+        } else {
+            view.text("Сейчас занятий нет.\n\n");
+        }
+        if (next != null) {
+            view.bold("⏭ Далее").text(" (" + slotTime(next) + ", через " + (next.start() - minute) + " мин)\n");
+            appendNowLessons(view, next, type);
+        } else {
+            view.text("Больше занятий сегодня нет.");
+        }
+        return view.build();
     }
 
-    public String getScheduleByRoom(int roomNumber) {
-        return getScheduleByRoom(roomNumber, null);
+    // null — на эту дату расписания нет
+    public LessonTimeline getTimeline(LocalDate date, int type, String target) {
+        ScheduleIndex idx = index();
+        ScheduleIndex.Day day = findDay(idx, date);
+        return day == null ? null : timeline(idx, bellTable, day, type, target);
     }
 
-    public String getScheduleByRoom(int roomNumber, String date) {
-        StringBuilder sb = new StringBuilder();
-        String targetDate;
-        boolean isMonday;
-        String textDate = convertDateToRussianText(date);
+    public ScheduleView formatReminder(LessonTimeline.Slot slot, int type, int minutesBefore) {
+        ScheduleView.Builder view = ScheduleView.builder();
+        view.text("⏰ ").bold("Через " + minutesBefore + " мин").text(" (" + slotTime(slot) + "):\n");
+        appendNowLessons(view, slot, type);
+        return view.build();
+    }
 
-        if (date != null && !date.isEmpty()) {
-            String checkDateSql = "SELECT date_val, is_monday FROM schedules WHERE (date_val LIKE ? OR date_val LIKE ?) LIMIT 1";
-            try (PreparedStatement ps = connection.prepareStatement(checkDateSql)) {
-                ps.setString(1, "%" + date + "%");
-                ps.setString(2, "%" + (textDate != null ? textDate : date) + "%");
-                ResultSet rs = ps.executeQuery();
-                if (rs.next()) {
-                    targetDate = rs.getString("date_val");
-                    isMonday = rs.getInt("is_monday") == 1;
-                } else {
-                    return "Расписание на дату " + date + " не найдено в базе.";
-                }
-            } catch (SQLException e) { return "Ошибка БД при поиске даты."; }
+    private LessonTimeline timeline(ScheduleIndex idx, BellTable bells, ScheduleIndex.Day day, int type, String target) {
+        String key = type + ":" + target.trim().toLowerCase();
+        CachedTimeline cached = timelines.get(key);
+        if (cached != null && cached.index() == idx && cached.bells() == bells && cached.date().equals(day.getDate())) {
+            return cached.timeline();
+        }
+
+        List<ScheduleIndex.LessonEntry> lessons;
+        if (type == 0) {
+            ScheduleIndex.GroupDay groupDay = idx.findGroup(target, day);
+            lessons = groupDay == null ? List.of() : groupDay.lessons();
         } else {
-            String latestDateSql = "SELECT date_val, is_monday FROM schedules ORDER BY id DESC LIMIT 1";
-            try (PreparedStatement ps = connection.prepareStatement(latestDateSql); ResultSet rs = ps.executeQuery()) {
-                if (!rs.next()) return "Расписание ещё не загружено.";
-                targetDate = rs.getString("date_val");
-                isMonday = rs.getInt("is_monday") == 1;
-            } catch (SQLException e) { return "Ошибка базы данных."; }
+            lessons = idx.findByTeacher(day, target);
         }
+        LessonTimeline timeline = LessonTimeline.build(lessons, bells, day.isMonday());
+        timelines.put(key, new CachedTimeline(idx, bells, day.getDate(), timeline));
+        return timeline;
+    }
 
-        String sql = """
-        SELECT l.pair_number, l.subject, s.group_name,
-               GROUP_CONCAT(DISTINCT lt.name ORDER BY lt.name) as teachers
-        FROM schedules s
-        JOIN lessons l ON s.id = l.schedule_id
-        JOIN lesson_rooms lr ON l.id = lr.lesson_id
-        LEFT JOIN lesson_teachers lt ON l.id = lt.lesson_id
-        WHERE lr.room_number = ? AND s.date_val = ?
-        GROUP BY l.pair_number, l.subject, s.group_name
-        ORDER BY l.pair_number
-        """;
-        try (PreparedStatement ps = connection.prepareStatement(sql)) {
-            ps.setInt(1, roomNumber); ps.setString(2, targetDate); ResultSet rs = ps.executeQuery();
-            TreeMap<Integer, List<String>> lessonsByPair = new TreeMap<>();
-            while (rs.next()) {
-                int pair = rs.getInt("pair_number");
-                String subject = rs.getString("subject").trim();
-                String group = rs.getString("group_name");
-                String teachers = rs.getString("teachers");
-                String teacherStr = (teachers == null || teachers.isEmpty()) ? "" : " (" + teachers.replace(",", ", ") + ")";
-                String line = subject + " — <b>" + group + "</b>" + teacherStr;
-                lessonsByPair.computeIfAbsent(pair, _ -> new ArrayList<>()).add(line);
-            }
-            if (lessonsByPair.isEmpty()) return "На <b>" + targetDate + "</b> в кабинете <b>" + roomNumber + "</b> пар нет.";
+    private static String slotTime(LessonTimeline.Slot slot) {
+        return BellTable.format(slot.start()) + "–" + BellTable.format(slot.end());
+    }
 
-            sb.append("🗓 Расписание:\n📅 <b>").append(targetDate).append("</b>\n");
-            sb.append("Кабинет: <b>").append(roomNumber).append("</b>\n\n");
-            appendFormattedMap(sb, lessonsByPair, isMonday);
-            return sb.toString();
-        } catch (SQLException e) { return "Ошибка."; }
+    private void appendNowLessons(ScheduleView.Builder view, LessonTimeline.Slot slot, int type) {
+        for (ScheduleIndex.LessonEntry lesson : slot.lessons()) {
+            view.text("   • " + lesson.pair() + " пара: ").bold(lesson.subject());
+            if (!lesson.rooms().isEmpty()) view.text(" [Каб: " + joinAll(lesson.rooms(), ",") + "]");
+            if (type == 0 && !lesson.teachers().isEmpty()) view.text(" (" + String.join(", ", lesson.teachers()) + ")");
+            if (type != 0) view.text(" (" + lesson.group() + ")");
+            view.text("\n");
+        }
+        view.text("\n");
     }
 
-    private void appendFormattedMap(StringBuilder sb, Map<Integer, List<String>> lessonsByPair, boolean isMonday) {
-        for (Map.Entry<Integer, List<String>> entry : lessonsByPair.entrySet()) {
+    private ScheduleIndex.Day findToday(ScheduleIndex idx) {
+        return findDay(idx, LocalDate.now(zone));
+    }
+
+    private ScheduleIndex.Day findDay(ScheduleIndex idx, LocalDate date) {
+        String token = date.format(DateTimeFormatter.ofPattern("dd.MM.yyyy"));
+        return idx.findDay(token, convertDateToRussianText(token));
+    }
+
+    public long getPublishedGeneration() {
+        return published.get().generation();
+    }
+
+    private ScheduleIndex index() {
+        return published.get().index();
+    }
+
+    private ScheduleIndex.Day resolveDay(ScheduleIndex idx, String date) {
+        if (date == null || date.isEmpty()) return idx.getLatestDay();
+        return idx.findDay(date, convertDateToRussianText(date));
+    }
+
+    private ScheduleView dayNotFound(ScheduleIndex idx, String date) {
+        if (date != null && !date.isEmpty()) return ScheduleView.plain("Расписание на дату " + date + " не найдено в базе.");
+        return ScheduleView.plain("Расписание ещё не загружено.");
+    }
+
+    private static String joinAll(Iterable<?> items, String separator) {
+        StringBuilder sb = new StringBuilder();
+        for (Object item : items) {
+            if (!sb.isEmpty()) sb.append(separator);
+            sb.append(item);
+        }
+        return sb.toString();
+    }
+
+    private ScheduleView cached(ResponseCache.Kind kind, String target, String date, Supplier<ScheduleView> loader) {
+        String textDate = convertDateToRussianText(date);
+        ResponseCache.Key key = ResponseCache.Key.of(kind, target, textDate != null ? textDate : date);
+        ScheduleView view = responseCache.get(key);
+        if (view != null) return view;
+
+        long version = responseCache.version();
+        view = loader.get();
+        responseCache.put(key, view, version);
+        return view;
+    }
+
+    private void appendFormattedMap(ScheduleView.Builder view, Map<Integer, List<ScheduleView>> lessonsByPair, boolean isMonday) {
+        for (Map.Entry<Integer, List<ScheduleView>> entry : lessonsByPair.entrySet()) {
             int pair = entry.getKey();
             String time = getBellTime(pair, isMonday);
             String timeStr = (time != null) ? " (" + time + ")" : "";
 
-            sb.append("<b>").append(pair).append(" пара").append(timeStr).append("</b>\n");
-            for (String line : entry.getValue()) {
-                sb.append("   • ").append(line).append("\n");
+            view.bold(pair + " пара" + timeStr).text("\n");
+            for (ScheduleView line : entry.getValue()) {
+                view.text("   • ").append(line).text("\n");
             }
-            sb.append("\n");
+            view.text("\n");
         }
     }
 
-    private void appendLessons(StringBuilder sb, long scheduleId, boolean isMonday) throws SQLException {
-        String sql = "SELECT * FROM lessons WHERE schedule_id = ? ORDER BY pair_number";
-        try (PreparedStatement ps = connection.prepareStatement(sql)) {
-            ps.setLong(1, scheduleId);
-            ResultSet rs = ps.executeQuery();
-            while (rs.next()) formatLesson(sb, rs, isMonday);
-        }
-    }
-
-    private void formatLesson(StringBuilder sb, ResultSet rs, boolean isMonday) throws SQLException {
-        long id = rs.getLong("id");
-        int pair = rs.getInt("pair_number");
+    private void formatLesson(ScheduleView.Builder view, ScheduleIndex.LessonEntry lesson, boolean isMonday) {
+        int pair = lesson.pair();
         String timeStr = getBellTime(pair, isMonday);
 
-        String customTime = rs.getString("start_time");
+        String customTime = lesson.startTime();
         if (customTime != null && !customTime.isEmpty()) {
             timeStr = "Начало в " + customTime;
         } else if (timeStr == null) {
             timeStr = "";
         }
 
-        sb.append(pair).append(" пара");
-        if (!timeStr.isEmpty()) sb.append(" <i>(").append(timeStr).append(")</i> ");
-        sb.append("\n");
-        sb.append("<b>").append(rs.getString("subject")).append("</b>");
+        view.text(pair + " пара");
+        if (!timeStr.isEmpty()) view.text(" ").italic("(" + timeStr + ")").text(" ");
+        view.text("\n");
+        view.bold(lesson.subject());
 
-        List<String> rooms = getRelated(id, "lesson_rooms", "room_number");
-        if (!rooms.isEmpty()) sb.append(" [Каб: ").append(String.join(",", rooms)).append("]");
+        if (!lesson.rooms().isEmpty()) view.text(" [Каб: " + joinAll(lesson.rooms(), ",") + "]");
+        if (!lesson.teachers().isEmpty()) view.text(" (" + String.join(", ", lesson.teachers()) + ")");
+        if (!lesson.labels().isEmpty()) view.text(" " + String.join(" ", lesson.labels()));
 
-        List<String> teachers = getRelated(id, "lesson_teachers", "name");
-        if (!teachers.isEmpty()) sb.append(" (").append(String.join(", ", teachers)).append(")");
-
-        List<String> labels = getRelated(id, "lesson_labels", "label");
-        if (!labels.isEmpty()) sb.append(" ").append(String.join(" ", labels));
-
-        sb.append("\n\n");
-    }
-
-    private List<String> getRelated(long lessonId, String table, String col) throws SQLException {
-        List<String> res = new ArrayList<>();
-        try (PreparedStatement ps = connection.prepareStatement("SELECT " + col + " FROM " + table + " WHERE lesson_id = ?")) {
-            ps.setLong(1, lessonId);
-            ResultSet rs = ps.executeQuery();
-            while(rs.next()) res.add(rs.getString(1));
-        }
-        return res;
+        view.text("\n\n");
     }
 
     public List<String> getAllGroups() {
-        List<String> groups = new ArrayList<>();
-        String sql = "SELECT DISTINCT group_name FROM schedules ORDER BY group_name";
-        try (PreparedStatement ps = connection.prepareStatement(sql);
-             ResultSet rs = ps.executeQuery()) {
-            while (rs.next()) {
-                groups.add(rs.getString("group_name"));
-            }
-        } catch (SQLException e) {
-            logger.log(Level.SEVERE, "Error loading groups", e);
-        }
-        return groups;
+        return index().getAllGroups();
     }
 
     public List<String> getAllTeachers() {
-        List<String> teachers = new ArrayList<>();
-        String sql = "SELECT DISTINCT name FROM lesson_teachers ORDER BY name";
-        try (PreparedStatement ps = connection.prepareStatement(sql);
-             ResultSet rs = ps.executeQuery()) {
-            while (rs.next()) {
-                teachers.add(rs.getString("name"));
-            }
-        } catch (SQLException e) {
-            logger.log(Level.SEVERE, "Error loading teachers", e);
-        }
-        return teachers;
+        return index().getAllTeachers();
     }
 
     public List<Integer> getActiveRooms() {
-        List<Integer> rooms = new ArrayList<>();
-        String sql = """
-        SELECT DISTINCT lr.room_number\s
-        FROM lesson_rooms lr
-        JOIN lessons l ON lr.lesson_id = l.id
-        JOIN schedules s ON l.schedule_id = s.id
-        ORDER BY s.id DESC LIMIT 100
-       \s""";
-        try (PreparedStatement ps = connection.prepareStatement(sql);
-             ResultSet rs = ps.executeQuery()) {
-            while (rs.next()) {
-                rooms.add(rs.getInt("room_number"));
-            }
-        } catch (SQLException e) {
-            logger.log(Level.SEVERE, "Error loading rooms", e);
-        }
-        return rooms.stream().distinct().sorted().toList();
+        return index().getActiveRooms();
     }
 
     private void saveDetails(long lessonId, Lesson lesson) throws SQLException {
@@ -638,58 +1374,41 @@ public class DatabaseService implements AutoCloseable {
     }
 
     public List<Subscriber> getAllSubscribersUnique() {
-        List<Subscriber> list = new ArrayList<>();
-        try (Statement stmt = connection.createStatement();
-             ResultSet rs = stmt.executeQuery("SELECT DISTINCT chat_id, message_thread_id, platform FROM users")) {
-            while (rs.next()) {
-                int tid = rs.getInt("message_thread_id");
-                list.add(new Subscriber(rs.getLong("chat_id"), tid == 0 ? null : tid, rs.getString("platform")));
-            }
-        } catch (SQLException e) { e.printStackTrace(); }
-        return list;
+        return subscriberRegistry.resolve(subscriberRegistry.all());
     }
 
-    public String getGroupScheduleSignature(String groupName, String dateVal) {
-        StringBuilder sb = new StringBuilder();
-        String sqlId = "SELECT id FROM schedules WHERE group_name = ? AND date_val = ?";
-        long scheduleId = -1;
-        try (PreparedStatement ps = connection.prepareStatement(sqlId)) {
-            ps.setString(1, groupName);
-            ps.setString(2, dateVal);
-            ResultSet rs = ps.executeQuery();
-            if (rs.next()) scheduleId = rs.getLong("id");
-        } catch (SQLException e) { return ""; }
-        if (scheduleId == -1) return "";
+    public synchronized String getGroupScheduleSignature(String groupName, String dateVal) {
+        ScheduleIndex.Day day = stagingIndex.getDay(dateVal);
+        ScheduleIndex.GroupDay groupDay = day == null ? null : day.getGroups().get(groupName);
+        if (groupDay == null) return "";
 
-        String sqlLessons = "SELECT pair_number, subject, raw_text FROM lessons WHERE schedule_id = ? ORDER BY pair_number";
-        try (PreparedStatement ps = connection.prepareStatement(sqlLessons)) {
-            ps.setLong(1, scheduleId);
-            ResultSet rs = ps.executeQuery();
-            while (rs.next()) {
-                sb.append(rs.getInt("pair_number")).append(":")
-                        .append(rs.getString("subject")).append(":")
-                        .append(rs.getString("raw_text")).append("|");
-            }
-        } catch (SQLException e) { e.printStackTrace(); }
+        StringBuilder sb = new StringBuilder();
+        for (ScheduleIndex.LessonEntry lesson : groupDay.lessons()) {
+            sb.append(lesson.pair()).append(":")
+                    .append(lesson.subject()).append(":")
+                    .append(lesson.raw()).append("|");
+        }
         return sb.toString();
     }
 
-
-    public void saveSingleGroupSchedule(String groupName, String date, DaySchedule daySchedule) {
-        String insertScheduleSQL = "INSERT INTO schedules(group_name, date_val, is_monday) VALUES(?, ?, ?)";
+    // Расписание группы на дату целиком одной транзакцией; false — ничего не сохранено
+    public synchronized boolean saveSingleGroupSchedule(String groupName, String date, DaySchedule daySchedule) {
+        String insertScheduleSQL = "INSERT INTO schedules(group_name, date_val, is_monday, generation) VALUES(?, ?, ?, ?)";
         String insertLessonSQL = "INSERT INTO lessons(schedule_id, pair_number, subject, start_time, raw_text) VALUES(?, ?, ?, ?, ?)";
 
-        try {
+        long[] saved = new long[1];
+        boolean ok = inTransaction("saving schedule of " + groupName + " on " + date, () -> {
             try (PreparedStatement psSchedule = connection.prepareStatement(insertScheduleSQL, Statement.RETURN_GENERATED_KEYS)) {
                 psSchedule.setString(1, groupName);
                 psSchedule.setString(2, date);
                 psSchedule.setInt(3, daySchedule.isMonday() ? 1 : 0);
+                psSchedule.setLong(4, stagingGeneration);
                 psSchedule.executeUpdate();
 
                 long scheduleId;
                 try (ResultSet rs = psSchedule.getGeneratedKeys()) {
                     if (rs.next()) scheduleId = rs.getLong(1);
-                    else return;
+                    else throw new SQLException("No id generated for schedule");
                 }
 
                 try (PreparedStatement psLesson = connection.prepareStatement(insertLessonSQL, Statement.RETURN_GENERATED_KEYS)) {
@@ -706,20 +1425,59 @@ public class DatabaseService implements AutoCloseable {
                             long lessonId;
                             try (ResultSet rsLesson = psLesson.getGeneratedKeys()) {
                                 if (rsLesson.next()) lessonId = rsLesson.getLong(1);
-                                else continue;
+                                else throw new SQLException("No id generated for lesson");
                             }
                             saveDetails(lessonId, lesson);
                         }
                     }
                 }
+                saved[0] = scheduleId;
             }
+        });
+        if (!ok) return false;
+        // Черновик индекса меняется только после коммита
+        stagingIndex = stagingIndex.with(ScheduleIndex.toGroupDay(groupName, date, daySchedule, saved[0]));
+        stagedDates.add(date);
+        return true;
+    }
+
+    // false — поколение не опубликовано, читатели по-прежнему видят предыдущее
+    public synchronized boolean publishGeneration() {
+        if (stagedDates.isEmpty()) return true;
+        long generation = stagingGeneration;
+        try (PreparedStatement ps = connection.prepareStatement(
+                "INSERT INTO meta(key, value) VALUES('published_generation', ?) ON CONFLICT(key) DO UPDATE SET value = excluded.value")) {
+            ps.setLong(1, generation);
+            ps.executeUpdate();
         } catch (SQLException e) {
-            logger.log(Level.SEVERE, "Error saving single group schedule", e);
+            logger.log(Level.SEVERE, "Error publishing generation " + generation, e);
+            return false;
         }
+
+        published.set(new ScheduleSnapshot(generation, stagingIndex));
+        for (String date : stagedDates) responseCache.invalidateDate(date);
+        timelines.clear();
+        System.out.println("Published schedule generation " + generation + " (" + stagedDates.size() + " dates)");
+        stagedDates.clear();
+        stagingGeneration = generation + 1;
+
+        try {
+            deleteSupersededRows(generation);
+        } catch (SQLException e) {
+            logger.log(Level.SEVERE, "Error cleaning up superseded schedules", e);
+        }
+        writeSnapshot();
+        return true;
     }
 
     @Override
     public void close() throws Exception {
-        if (connection != null && !connection.isClosed()) connection.close();
+        userLogFlusher.shutdown();
+        flushUserLog();
+        // Перед выходом — ещё раз, чтобы после перезапуска кэш ответов был таким же горячим
+        writeSnapshot();
+        synchronized (this) {
+            if (connection != null && !connection.isClosed()) connection.close();
+        }
     }
 }
\ No newline at end of file
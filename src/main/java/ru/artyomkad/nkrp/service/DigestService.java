@@ -0,0 +1,180 @@
+package ru.artyomkad.nkrp.service;
+
+import ru.artyomkad.nkrp.bot.TelegramBot;
+import ru.artyomkad.nkrp.bot.VKCollegeBot;
+import ru.artyomkad.nkrp.model.ScheduleView;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Вечерняя рассылка расписания на завтра: все адресаты одной группы/преподавателя получают
+// один и тот же заранее собранный ответ, а отправка растягивается на окно
+public class DigestService implements AutoCloseable {
+
+    public record Settings(LocalTime sendAt, long prerenderLeadMs, long windowMs, double messagesPerSecond, ZoneId zone) {}
+
+    private record Target(int type, String value) {}
+
+    private record Batch(String date, long generation, Map<Target, ScheduleView> views, Map<Target, List<DatabaseService.Subscriber>> recipients) {}
+
+    private final DatabaseService dbService;
+    private final TelegramBot tgBot;
+    private final VKCollegeBot vkBot;
+    private final Settings settings;
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "digest");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private Batch prepared;
+
+    public DigestService(DatabaseService dbService, TelegramBot tgBot, VKCollegeBot vkBot, Settings settings) {
+        this.dbService = dbService;
+        this.tgBot = tgBot;
+        this.vkBot = vkBot;
+        this.settings = settings;
+    }
+
+    public void start() {
+        ZonedDateTime now = ZonedDateTime.now(settings.zone());
+        scheduleNext(now.with(settings.sendAt()).withSecond(0).withNano(0));
+    }
+
+    // Следующий запуск считается от времени обработанной рассылки, а не от now():
+    // если таймер сработал чуть раньше срока, та же рассылка не уйдёт второй раз
+    private void scheduleNext(ZonedDateTime candidate) {
+        ZonedDateTime now = ZonedDateTime.now(settings.zone());
+        ZonedDateTime sendAt = candidate;
+        // Пропущенные рассылки (процесс спал или рассылка шла дольше суток) не догоняем
+        while (!sendAt.isAfter(now)) sendAt = sendAt.plusDays(1);
+
+        long untilSend = Duration.between(now, sendAt).toMillis();
+        long untilPrerender = Math.max(0, untilSend - settings.prerenderLeadMs());
+        LocalDate date = sendAt.toLocalDate().plusDays(1);
+        ZonedDateTime scheduled = sendAt;
+
+        executor.schedule(() -> prerender(date), untilPrerender, TimeUnit.MILLISECONDS);
+        executor.schedule(() -> deliver(scheduled), untilSend, TimeUnit.MILLISECONDS);
+    }
+
+    private void prerender(LocalDate date) {
+        try {
+            long start = System.currentTimeMillis();
+            Map<Target, List<DatabaseService.Subscriber>> recipients = new LinkedHashMap<>();
+            for (DatabaseService.Subscription sub : dbService.getDigestSubscriptions()) {
+                recipients.computeIfAbsent(new Target(sub.subType(), sub.subValue()), _ -> new ArrayList<>()).add(sub.subscriber());
+            }
+
+            String dateToken = date.format(DateTimeFormatter.ofPattern("dd.MM.yyyy"));
+            long generation = dbService.getPublishedGeneration();
+            prepared = new Batch(dateToken, generation, render(dateToken, recipients), recipients);
+            System.out.println("Digest for " + dateToken + " prerendered: " + recipients.size() + " targets in "
+                    + (System.currentTimeMillis() - start) + "ms");
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private Map<Target, ScheduleView> render(String date, Map<Target, List<DatabaseService.Subscriber>> recipients) {
+        Map<Target, ScheduleView> views = new LinkedHashMap<>();
+        for (Map.Entry<Target, List<DatabaseService.Subscriber>> entry : recipients.entrySet()) {
+            Target target = entry.getKey();
+            ScheduleView schedule = target.type() == 0
+                    ? dbService.getScheduleByGroup(target.value(), date)
+                    : dbService.getScheduleByTeacher(target.value(), date);
+            // На завтра расписания нет (выходной или ещё не выложили) — никому ничего не шлём
+            if (schedule.getDate() == null) continue;
+
+            ScheduleView view = ScheduleView.builder()
+                    .text("🌙 ").bold("Расписание на завтра").text("\n\n")
+                    .append(schedule)
+                    .build();
+            // Рендерим заранее под каждую платформу, чтобы в момент рассылки строка уже была готова
+            for (DatabaseService.Subscriber sub : entry.getValue()) view.render(sub.getPlatform().renderer());
+            views.put(target, view);
+        }
+        return views;
+    }
+
+    private void deliver(ZonedDateTime sendAt) {
+        try {
+            Batch batch = prepared;
+            prepared = null;
+            if (batch == null) return;
+
+            Map<Target, ScheduleView> views = batch.views();
+            if (dbService.getPublishedGeneration() != batch.generation()) {
+                // Расписание обновилось после пререндера
+                views = render(batch.date(), batch.recipients());
+            }
+
+            // VK: одинаковый ответ всем адресатам цели — пачками через peer_ids, со своим темпом execute
+            Map<ScheduleView, List<Long>> vkPeers = new LinkedHashMap<>();
+            List<Map.Entry<DatabaseService.Subscriber, ScheduleView>> tgQueue = new ArrayList<>();
+            for (Map.Entry<Target, ScheduleView> entry : views.entrySet()) {
+                for (DatabaseService.Subscriber sub : batch.recipients().get(entry.getKey())) {
+                    switch (sub.getPlatform()) {
+                        case VKontakte -> vkPeers.computeIfAbsent(entry.getValue(), _ -> new ArrayList<>()).add(sub.chatId());
+                        case Telegram -> tgQueue.add(Map.entry(sub, entry.getValue()));
+                    }
+                }
+            }
+            if (vkPeers.isEmpty() && tgQueue.isEmpty()) return;
+
+            long start = System.currentTimeMillis();
+            int vkDelivered = vkPeers.isEmpty() ? 0 : sendVk(vkPeers);
+
+            // Telegram по одному: темп подобран так, чтобы рассылка уложилась в окно, но не быстрее messagesPerSecond
+            if (!tgQueue.isEmpty()) {
+                double perSecond = Math.min(settings.messagesPerSecond(), tgQueue.size() * 1000.0 / Math.max(1, settings.windowMs()));
+                RateLimiter pace = new RateLimiter(perSecond, 1);
+                for (Map.Entry<DatabaseService.Subscriber, ScheduleView> item : tgQueue) {
+                    pace.acquire();
+                    sendTelegram(item.getKey(), item.getValue());
+                }
+            }
+            System.out.println("Digest for " + batch.date() + " delivered to " + vkDelivered + " VK and " + tgQueue.size()
+                    + " Telegram chats in " + (System.currentTimeMillis() - start) / 1000 + "s");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        } finally {
+            if (!executor.isShutdown()) scheduleNext(sendAt.plusDays(1).with(settings.sendAt()));
+        }
+    }
+
+    private int sendVk(Map<ScheduleView, List<Long>> peers) {
+        try {
+            return vkBot.sendViews(peers);
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            return 0;
+        }
+    }
+
+    private void sendTelegram(DatabaseService.Subscriber sub, ScheduleView view) {
+        try {
+            tgBot.sendView(sub.chatId(), sub.messageThreadId(), view);
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+}
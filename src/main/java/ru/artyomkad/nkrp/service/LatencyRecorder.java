@@ -0,0 +1,47 @@
+package ru.artyomkad.nkrp.service;
+
+import java.util.Arrays;
+
+// Последние N замеров в кольцевом буфере: перцентили и пропускная способность по этому окну
+public class LatencyRecorder {
+    private final String name;
+    private final long[] nanos;
+    private final long[] finishedAt;
+    private long count;
+
+    public LatencyRecorder(String name, int window) {
+        this.name = name;
+        this.nanos = new long[window];
+        this.finishedAt = new long[window];
+    }
+
+    public synchronized void record(long elapsedNanos) {
+        int slot = (int) (count % nanos.length);
+        nanos[slot] = elapsedNanos;
+        finishedAt[slot] = System.currentTimeMillis();
+        count++;
+    }
+
+    @Override
+    public synchronized String toString() {
+        int n = (int) Math.min(count, nanos.length);
+        if (n == 0) return name + ": no data";
+
+        long[] sorted = Arrays.copyOf(nanos, n);
+        Arrays.sort(sorted);
+        long oldest = Long.MAX_VALUE;
+        long newest = 0;
+        for (int i = 0; i < n; i++) {
+            oldest = Math.min(oldest, finishedAt[i]);
+            newest = Math.max(newest, finishedAt[i]);
+        }
+        double seconds = Math.max(newest - oldest, 1) / 1000.0;
+        return String.format("%s: %d total, p50 %.1f ms, p99 %.1f ms, %.1f/s over last %d",
+                name, count, percentile(sorted, 0.50) / 1e6, percentile(sorted, 0.99) / 1e6, n / seconds, n);
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        int index = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+}
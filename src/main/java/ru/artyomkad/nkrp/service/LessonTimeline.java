@@ -0,0 +1,75 @@
+package ru.artyomkad.nkrp.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+// Занятия одной группы или преподавателя за день, отсортированные по времени начала
+public final class LessonTimeline {
+    private static final int DEFAULT_DURATION = 90;
+
+    public record Slot(int start, int end, List<ScheduleIndex.LessonEntry> lessons) {}
+
+    private final Slot[] slots;
+    private final int[] starts;
+
+    private LessonTimeline(Slot[] slots) {
+        this.slots = slots;
+        this.starts = Arrays.stream(slots).mapToInt(Slot::start).toArray();
+    }
+
+    // Время берётся из звонков, а «Начало в ...» у конкретного занятия его переопределяет
+    public static LessonTimeline build(List<ScheduleIndex.LessonEntry> lessons, BellTable bells, boolean isMonday) {
+        List<Slot> timed = new ArrayList<>();
+        for (ScheduleIndex.LessonEntry lesson : lessons) {
+            BellTable.BellsInterval bell = bells.get(lesson.pair(), isMonday);
+            int start = BellTable.parseTime(lesson.startTime());
+            if (start >= 0) {
+                int duration = bell != null ? bell.end() - bell.start() : DEFAULT_DURATION;
+                timed.add(new Slot(start, start + duration, List.of(lesson)));
+            } else if (bell != null) {
+                timed.add(new Slot(bell.start(), bell.end(), List.of(lesson)));
+            }
+        }
+        timed.sort(Comparator.comparingInt(Slot::start).thenComparingInt(Slot::end));
+
+        // Подгруппы и совмещённые занятия в одно и то же время — один слот
+        List<Slot> merged = new ArrayList<>();
+        for (Slot slot : timed) {
+            Slot last = merged.isEmpty() ? null : merged.getLast();
+            if (last != null && last.start() == slot.start() && last.end() == slot.end()) {
+                last.lessons().addAll(slot.lessons());
+            } else {
+                merged.add(new Slot(slot.start(), slot.end(), new ArrayList<>(slot.lessons())));
+            }
+        }
+        return new LessonTimeline(merged.toArray(Slot[]::new));
+    }
+
+    public List<Slot> slots() {
+        return List.of(slots);
+    }
+
+    public boolean isEmpty() {
+        return slots.length == 0;
+    }
+
+    // Последнее занятие, начавшееся не позже minuteOfDay и ещё не закончившееся
+    public Slot current(int minuteOfDay) {
+        int idx = lastStartedAt(minuteOfDay);
+        return idx >= 0 && slots[idx].end() > minuteOfDay ? slots[idx] : null;
+    }
+
+    public Slot next(int minuteOfDay) {
+        int idx = lastStartedAt(minuteOfDay) + 1;
+        return idx < slots.length ? slots[idx] : null;
+    }
+
+    private int lastStartedAt(int minuteOfDay) {
+        int idx = Arrays.binarySearch(starts, minuteOfDay);
+        if (idx < 0) return -idx - 2;
+        while (idx + 1 < starts.length && starts[idx + 1] == minuteOfDay) idx++;
+        return idx;
+    }
+}
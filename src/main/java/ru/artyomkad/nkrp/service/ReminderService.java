@@ -0,0 +1,204 @@
+package ru.artyomkad.nkrp.service;
+
+import ru.artyomkad.nkrp.bot.TelegramBot;
+import ru.artyomkad.nkrp.bot.VKCollegeBot;
+import ru.artyomkad.nkrp.model.ScheduleView;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Напоминания «пара через N минут»: план на день раскладывается по колесу таймеров,
+// сработавшие напоминания отправляются пачками через общий ограничитель скорости
+public class ReminderService implements AutoCloseable {
+    private static final int BATCH_SIZE = 100;
+
+    private record Reminder(DatabaseService.Subscriber subscriber, ScheduleView view, long expiresAt) {}
+
+    // Что запланировано для подписки: таймеры и группы, из расписаний которых они взяты
+    private record Plan(List<TimingWheel.Timeout> timeouts, Set<String> groups) {}
+
+    private final DatabaseService dbService;
+    private final TelegramBot tgBot;
+    private final VKCollegeBot vkBot;
+    private final ZoneId zone;
+    private final RateLimiter rateLimiter;
+
+    private final TimingWheel wheel = new TimingWheel("reminder-wheel", 1000, 4096);
+    private final BlockingQueue<Reminder> outbox = new LinkedBlockingQueue<>();
+    // Всё планирование идёт в одном потоке, поэтому plans не требует синхронизации
+    private final ScheduledExecutorService planner = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "reminder-planner");
+        t.setDaemon(true);
+        return t;
+    });
+    private final ExecutorService dispatcher = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "reminder-dispatch");
+        t.setDaemon(true);
+        return t;
+    });
+    private final Map<DatabaseService.Subscription, Plan> plans = new HashMap<>();
+    private LocalDate plannedDate;
+
+    public ReminderService(DatabaseService dbService, TelegramBot tgBot, VKCollegeBot vkBot, ZoneId zone, double messagesPerSecond) {
+        this.dbService = dbService;
+        this.tgBot = tgBot;
+        this.vkBot = vkBot;
+        this.zone = zone;
+        this.rateLimiter = new RateLimiter(messagesPerSecond, (int) Math.ceil(messagesPerSecond));
+    }
+
+    public void start() {
+        dbService.addSubscriptionListener(sub -> planner.execute(() -> replanSubscriber(sub)));
+        dispatcher.execute(this::dispatchLoop);
+        planner.execute(this::planAll);
+
+        long untilMidnight = Duration.between(ZonedDateTime.now(zone),
+                LocalDate.now(zone).plusDays(1).atStartOfDay(zone).plusMinutes(1)).toMillis();
+        planner.scheduleAtFixedRate(this::planAll, untilMidnight, TimeUnit.DAYS.toMillis(1), TimeUnit.MILLISECONDS);
+    }
+
+    // Вызывается апдейтером после публикации: перепланируются только затронутые подписки
+    public void onScheduleChanged(Set<String> groups, Set<String> teachers) {
+        if (groups.isEmpty() && teachers.isEmpty()) return;
+        Set<String> changedGroups = Set.copyOf(groups);
+        Set<String> changedTeachers = Set.copyOf(teachers);
+        planner.execute(() -> {
+            if (!LocalDate.now(zone).equals(plannedDate)) {
+                planAll();
+                return;
+            }
+            int replanned = 0;
+            for (DatabaseService.ReminderSubscription reminder : dbService.getReminderSubscriptions()) {
+                Plan plan = plans.get(reminder.subscription());
+                if (isAffected(reminder.subscription(), plan, changedGroups, changedTeachers)) {
+                    plan(reminder);
+                    replanned++;
+                }
+            }
+            if (replanned > 0) System.out.println("Reminders replanned for " + replanned + " subscriptions");
+        });
+    }
+
+    private boolean isAffected(DatabaseService.Subscription subscription, Plan plan, Set<String> groups, Set<String> teachers) {
+        if (plan != null) {
+            for (String group : plan.groups()) {
+                if (groups.contains(group)) return true;
+            }
+        }
+        if (subscription.subType() == 0) return groups.contains(subscription.subValue());
+        // Тот же матчинг, что и при построении таймлайна (findByTeacher), иначе изменения не дойдут до напоминаний
+        for (String teacher : teachers) {
+            if (ScheduleIndex.teacherMatches(teacher, subscription.subValue())) return true;
+        }
+        return false;
+    }
+
+    private void planAll() {
+        try {
+            for (Plan plan : plans.values()) cancel(plan);
+            plans.clear();
+            plannedDate = LocalDate.now(zone);
+            int timers = 0;
+            for (DatabaseService.ReminderSubscription reminder : dbService.getReminderSubscriptions()) {
+                timers += plan(reminder);
+            }
+            System.out.println("Reminders planned for " + plannedDate + ": " + plans.size() + " subscriptions, " + timers + " timers");
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void replanSubscriber(DatabaseService.Subscriber subscriber) {
+        plans.entrySet().removeIf(entry -> {
+            if (!entry.getKey().subscriber().equals(subscriber)) return false;
+            cancel(entry.getValue());
+            return true;
+        });
+        for (DatabaseService.ReminderSubscription reminder : dbService.getReminderSubscriptions(subscriber)) plan(reminder);
+    }
+
+    private int plan(DatabaseService.ReminderSubscription reminder) {
+        DatabaseService.Subscription subscription = reminder.subscription();
+        Plan old = plans.remove(subscription);
+        if (old != null) cancel(old);
+
+        LocalDate today = LocalDate.now(zone);
+        LessonTimeline timeline = dbService.getTimeline(today, subscription.subType(), subscription.subValue());
+        if (timeline == null || timeline.isEmpty()) return 0;
+
+        long now = System.currentTimeMillis();
+        long midnight = today.atStartOfDay(zone).toInstant().toEpochMilli();
+        List<TimingWheel.Timeout> timeouts = new ArrayList<>();
+        Set<String> groups = new HashSet<>();
+        for (LessonTimeline.Slot slot : timeline.slots()) {
+            for (ScheduleIndex.LessonEntry lesson : slot.lessons()) groups.add(lesson.group());
+
+            long startsAt = midnight + TimeUnit.MINUTES.toMillis(slot.start());
+            long fireAt = startsAt - TimeUnit.MINUTES.toMillis(reminder.minutesBefore());
+            if (fireAt <= now) continue;
+
+            ScheduleView view = dbService.formatReminder(slot, subscription.subType(), reminder.minutesBefore());
+            Reminder message = new Reminder(subscription.subscriber(), view, startsAt);
+            timeouts.add(wheel.schedule(() -> outbox.add(message), fireAt));
+        }
+        plans.put(subscription, new Plan(timeouts, groups));
+        return timeouts.size();
+    }
+
+    private void cancel(Plan plan) {
+        for (TimingWheel.Timeout timeout : plan.timeouts()) timeout.cancel();
+    }
+
+    private void dispatchLoop() {
+        List<Reminder> batch = new ArrayList<>(BATCH_SIZE);
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                batch.add(outbox.take());
+                outbox.drainTo(batch, BATCH_SIZE - 1);
+                long now = System.currentTimeMillis();
+                for (Reminder reminder : batch) {
+                    // Если очередь отстала и пара уже началась, напоминание бесполезно
+                    if (now > reminder.expiresAt()) continue;
+                    rateLimiter.acquire();
+                    send(reminder);
+                }
+                batch.clear();
+            }
+        } catch (InterruptedException ignored) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void send(Reminder reminder) {
+        DatabaseService.Subscriber sub = reminder.subscriber();
+        try {
+            switch (sub.getPlatform()) {
+                case Telegram -> tgBot.sendView(sub.chatId(), sub.messageThreadId(), reminder.view());
+                case VKontakte -> vkBot.sendView(sub.chatId(), reminder.view());
+            }
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public void close() {
+        planner.shutdownNow();
+        dispatcher.shutdownNow();
+        wheel.close();
+    }
+}
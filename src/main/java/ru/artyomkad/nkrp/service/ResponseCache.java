@@ -0,0 +1,123 @@
+package ru.artyomkad.nkrp.service;
+
+import ru.artyomkad.nkrp.model.ScheduleView;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class ResponseCache {
+    public enum Kind { GROUP, TEACHER, ROOM, WEEK }
+
+    // date — запрошенная дата после нормализации, "" означает «последнее расписание»
+    public record Key(Kind kind, String target, String date) {
+        public static Key of(Kind kind, String target, String date) {
+            String normalizedTarget = target == null ? "" : target.trim().replaceAll("\\s+", " ");
+            String normalizedDate = date == null ? "" : date.trim().toLowerCase();
+            return new Key(kind, normalizedTarget, normalizedDate);
+        }
+
+        boolean isLatest() {
+            return date.isEmpty();
+        }
+    }
+
+    // dateTokens — подстроки date_val, при изменении которых запись устаревает (как в findDay)
+    private record Entry(ScheduleView view, Set<String> dateTokens) {}
+
+    // Запись в том виде, в каком она сохраняется в снимок
+    public record Saved(Key key, ScheduleView view, Set<String> dateTokens) {}
+
+    private final int maxSize;
+    private final LinkedHashMap<Key, Entry> entries;
+
+    private long version;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long invalidations;
+
+    public ResponseCache(int maxSize) {
+        this.maxSize = maxSize;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+                if (size() > ResponseCache.this.maxSize) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public synchronized ScheduleView get(Key key) {
+        Entry entry = entries.get(key);
+        if (entry != null) hits++;
+        else misses++;
+        return entry == null ? null : entry.view();
+    }
+
+    public synchronized long version() {
+        return version;
+    }
+
+    // Ответ, собранный до инвалидации, в кэш не попадает
+    public synchronized void put(Key key, ScheduleView view, long loadedAtVersion) {
+        if (view.getDate() == null) return;
+        put(key, view, loadedAtVersion, Set.of(view.getDate()));
+    }
+
+    // Ответ по нескольким датам (неделя): сбрасывается при изменении любой из них
+    public synchronized void put(Key key, ScheduleView view, long loadedAtVersion, Set<String> dateTokens) {
+        if (maxSize <= 0 || dateTokens.isEmpty() || loadedAtVersion != version) return;
+        entries.put(key, new Entry(view, Set.copyOf(dateTokens)));
+    }
+
+    // Не больше limit записей, от давно не запрошенных к самым горячим
+    public synchronized List<Saved> export(int limit) {
+        List<Saved> result = new ArrayList<>(entries.size());
+        for (Map.Entry<Key, Entry> e : entries.entrySet()) {
+            result.add(new Saved(e.getKey(), e.getValue().view(), e.getValue().dateTokens()));
+        }
+        return result.size() > limit ? new ArrayList<>(result.subList(result.size() - limit, result.size())) : result;
+    }
+
+    // Обратно в том же порядке, чтобы вытеснение шло как до перезапуска; счётчики не трогаются
+    public synchronized void restore(List<Saved> saved) {
+        if (maxSize <= 0) return;
+        for (Saved s : saved) {
+            if (!s.dateTokens().isEmpty()) entries.put(s.key(), new Entry(s.view(), Set.copyOf(s.dateTokens())));
+        }
+        evictions = 0;
+    }
+
+    public synchronized void invalidateDate(String date) {
+        version++;
+        int before = entries.size();
+        entries.entrySet().removeIf(e -> e.getKey().isLatest() || matches(e.getValue().dateTokens(), date));
+        invalidations += before - entries.size();
+    }
+
+    private static boolean matches(Set<String> tokens, String date) {
+        for (String token : tokens) {
+            if (date.contains(token)) return true;
+        }
+        return false;
+    }
+
+    public synchronized void clear() {
+        version++;
+        invalidations += entries.size();
+        entries.clear();
+    }
+
+    public synchronized String stats() {
+        long total = hits + misses;
+        double ratio = total == 0 ? 0 : hits * 100.0 / total;
+        return String.format("🗃 Кэш ответов: %d/%d записей, попадания %.1f%% (%d/%d), вытеснено: %d, сброшено: %d",
+                entries.size(), maxSize, ratio, hits, total, evictions, invalidations);
+    }
+}
@@ -0,0 +1,242 @@
+package ru.artyomkad.nkrp.service;
+
+import ru.artyomkad.nkrp.model.DaySchedule;
+import ru.artyomkad.nkrp.model.Lesson;
+import ru.artyomkad.nkrp.model.Period;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+public final class ScheduleIndex {
+    public record LessonEntry(String group, int pair, String subject, String startTime, String raw,
+                              List<String> teachers, List<Integer> rooms, List<String> labels) {}
+
+    // seq повторяет порядок schedules.id: чем больше, тем позже сохранено
+    public record GroupDay(String group, String date, boolean monday, long seq, List<LessonEntry> lessons) {}
+
+    public static final class Day {
+        private final String date;
+        private final Map<String, GroupDay> groups;
+        private final Map<String, List<LessonEntry>> byTeacher;
+        private final Map<Integer, List<LessonEntry>> byRoom;
+        private final GroupDay latest;
+
+        // Плотный индекс кабинетов дня и битсет занятых кабинетов на каждую пару
+        private final int[] roomNumbers;
+        private final Map<Integer, BitSet> occupiedByPair;
+
+        private Day(String date, Map<String, GroupDay> groups) {
+            this.date = date;
+            this.groups = Collections.unmodifiableMap(groups);
+
+            Map<String, List<LessonEntry>> teachers = new HashMap<>();
+            Map<Integer, List<LessonEntry>> rooms = new HashMap<>();
+            GroupDay newest = null;
+            for (GroupDay gd : groups.values()) {
+                if (newest == null || gd.seq() > newest.seq()) newest = gd;
+                for (LessonEntry lesson : gd.lessons()) {
+                    for (String teacher : lesson.teachers()) teachers.computeIfAbsent(teacher, _ -> new ArrayList<>()).add(lesson);
+                    for (Integer room : lesson.rooms()) rooms.computeIfAbsent(room, _ -> new ArrayList<>()).add(lesson);
+                }
+            }
+            this.byTeacher = Collections.unmodifiableMap(teachers);
+            this.byRoom = Collections.unmodifiableMap(rooms);
+            this.latest = newest;
+
+            this.roomNumbers = rooms.keySet().stream().mapToInt(Integer::intValue).sorted().toArray();
+            Map<Integer, BitSet> occupied = new HashMap<>();
+            for (int i = 0; i < roomNumbers.length; i++) {
+                for (LessonEntry lesson : rooms.get(roomNumbers[i])) {
+                    occupied.computeIfAbsent(lesson.pair(), _ -> new BitSet(roomNumbers.length)).set(i);
+                }
+            }
+            this.occupiedByPair = Collections.unmodifiableMap(occupied);
+        }
+
+        public List<Integer> freeRooms(int pair) {
+            BitSet free = new BitSet(roomNumbers.length);
+            free.set(0, roomNumbers.length);
+            BitSet occupied = occupiedByPair.get(pair);
+            if (occupied != null) free.andNot(occupied);
+
+            List<Integer> result = new ArrayList<>(free.cardinality());
+            for (int i = free.nextSetBit(0); i >= 0; i = free.nextSetBit(i + 1)) result.add(roomNumbers[i]);
+            return result;
+        }
+
+        public String getDate() { return date; }
+        public boolean isMonday() { return latest != null && latest.monday(); }
+        public long getSeq() { return latest == null ? -1 : latest.seq(); }
+        public Map<String, GroupDay> getGroups() { return groups; }
+        public Map<String, List<LessonEntry>> getByTeacher() { return byTeacher; }
+        public Map<Integer, List<LessonEntry>> getByRoom() { return byRoom; }
+    }
+
+    private final Map<String, Day> days;
+    private final Map<String, GroupDay> latestByGroup;
+    private final Day latestDay;
+
+    private volatile List<String> allGroups;
+    private volatile List<String> allTeachers;
+    private volatile List<Integer> activeRooms;
+
+    private ScheduleIndex(Map<String, Day> days, Map<String, GroupDay> latestByGroup, Day latestDay) {
+        this.days = days;
+        this.latestByGroup = latestByGroup;
+        this.latestDay = latestDay;
+    }
+
+    public static ScheduleIndex empty() {
+        return new ScheduleIndex(Map.of(), Map.of(), null);
+    }
+
+    public static GroupDay toGroupDay(String group, String date, DaySchedule schedule, long seq) {
+        List<LessonEntry> lessons = new ArrayList<>();
+        for (Map.Entry<Integer, Period> entry : new TreeMap<>(schedule.getPeriods()).entrySet()) {
+            for (Lesson lesson : entry.getValue().getLessons()) {
+                lessons.add(new LessonEntry(group, entry.getKey(), lesson.getSubject(), lesson.getStartTime(), lesson.getRaw(),
+                        List.copyOf(lesson.getTeachers()), List.copyOf(lesson.getRooms()), List.copyOf(lesson.getLabels())));
+            }
+        }
+        return new GroupDay(group, date, schedule.isMonday(), seq, List.copyOf(lessons));
+    }
+
+    // Пересобирается только день изменённой группы, остальные дни переиспользуются
+    public ScheduleIndex with(GroupDay groupDay) {
+        Map<String, Day> newDays = new HashMap<>(days);
+        Day oldDay = days.get(groupDay.date());
+        Map<String, GroupDay> dayGroups = oldDay == null ? new HashMap<>() : new HashMap<>(oldDay.groups);
+        dayGroups.put(groupDay.group(), groupDay);
+        Day newDay = new Day(groupDay.date(), dayGroups);
+        newDays.put(groupDay.date(), newDay);
+
+        Map<String, GroupDay> newLatest = new HashMap<>(latestByGroup);
+        GroupDay prev = newLatest.get(groupDay.group());
+        if (prev == null || groupDay.seq() >= prev.seq()) newLatest.put(groupDay.group(), groupDay);
+
+        Day newLatestDay = (latestDay == null || newDay.getSeq() >= latestDay.getSeq()) ? newDay : newDays.get(latestDay.getDate());
+        return new ScheduleIndex(Collections.unmodifiableMap(newDays), Collections.unmodifiableMap(newLatest), newLatestDay);
+    }
+
+    public static ScheduleIndex build(List<GroupDay> groupDays) {
+        Map<String, Map<String, GroupDay>> byDate = new HashMap<>();
+        Map<String, GroupDay> latestByGroup = new HashMap<>();
+        for (GroupDay gd : groupDays) {
+            byDate.computeIfAbsent(gd.date(), _ -> new HashMap<>()).put(gd.group(), gd);
+            latestByGroup.merge(gd.group(), gd, (a, b) -> b.seq() >= a.seq() ? b : a);
+        }
+        Map<String, Day> days = new HashMap<>();
+        Day latestDay = null;
+        for (Map.Entry<String, Map<String, GroupDay>> entry : byDate.entrySet()) {
+            Day day = new Day(entry.getKey(), entry.getValue());
+            days.put(entry.getKey(), day);
+            if (latestDay == null || day.getSeq() > latestDay.getSeq()) latestDay = day;
+        }
+        return new ScheduleIndex(Collections.unmodifiableMap(days), Collections.unmodifiableMap(latestByGroup), latestDay);
+    }
+
+    public boolean isEmpty() {
+        return days.isEmpty();
+    }
+
+    // Все дни групп в одном списке: из него build() собирает такой же индекс
+    public List<GroupDay> getGroupDays() {
+        List<GroupDay> result = new ArrayList<>();
+        for (Day day : days.values()) result.addAll(day.groups.values());
+        return result;
+    }
+
+    public Day getLatestDay() {
+        return latestDay;
+    }
+
+    public Day getDay(String date) {
+        return days.get(date);
+    }
+
+    public Map<String, Day> getDays() {
+        return days;
+    }
+
+    // Аналог date_val LIKE '%token%': из подходящих дат берём последнюю сохранённую
+    public Day findDay(String... tokens) {
+        Day best = null;
+        for (Day day : days.values()) {
+            for (String token : tokens) {
+                if (token != null && day.date.contains(token)) {
+                    if (best == null || day.getSeq() > best.getSeq()) best = day;
+                    break;
+                }
+            }
+        }
+        return best;
+    }
+
+    public GroupDay findGroup(String query, Day day) {
+        String needle = query.toLowerCase();
+        Map<String, GroupDay> candidates = day == null ? latestByGroup : day.groups;
+        GroupDay best = null;
+        for (GroupDay gd : candidates.values()) {
+            if (gd.group().toLowerCase().contains(needle) && (best == null || gd.seq() > best.seq())) best = gd;
+        }
+        return best;
+    }
+
+    // Запрос по преподавателю — подстрока имени без учёта регистра: «Сергеева» найдёт и «Иванова-Сергеева»
+    public static boolean teacherMatches(String teacher, String query) {
+        return teacher.toLowerCase().contains(query.toLowerCase());
+    }
+
+    public List<LessonEntry> findByTeacher(Day day, String query) {
+        // Пара с несколькими подходящими преподавателями попадает в выдачу один раз, порядок сохраняется
+        Set<LessonEntry> result = new LinkedHashSet<>();
+        for (Map.Entry<String, List<LessonEntry>> entry : day.byTeacher.entrySet()) {
+            if (teacherMatches(entry.getKey(), query)) result.addAll(entry.getValue());
+        }
+        return new ArrayList<>(result);
+    }
+
+    public List<LessonEntry> findByRoom(Day day, int room) {
+        return day.byRoom.getOrDefault(room, List.of());
+    }
+
+    public List<String> getAllGroups() {
+        List<String> groups = allGroups;
+        if (groups == null) {
+            TreeSet<String> set = new TreeSet<>();
+            for (Day day : days.values()) set.addAll(day.groups.keySet());
+            allGroups = groups = List.copyOf(set);
+        }
+        return groups;
+    }
+
+    public List<String> getAllTeachers() {
+        List<String> teachers = allTeachers;
+        if (teachers == null) {
+            TreeSet<String> set = new TreeSet<>();
+            for (Day day : days.values()) set.addAll(day.byTeacher.keySet());
+            allTeachers = teachers = List.copyOf(set);
+        }
+        return teachers;
+    }
+
+    public List<Integer> getActiveRooms() {
+        if (latestDay == null) return List.of();
+        List<Integer> rooms = activeRooms;
+        if (rooms == null) {
+            List<Integer> sorted = new ArrayList<>(latestDay.byRoom.keySet());
+            sorted.sort(Comparator.naturalOrder());
+            activeRooms = rooms = List.copyOf(sorted);
+        }
+        return rooms;
+    }
+}
@@ -23,6 +23,7 @@ import java.util.stream.Collectors;
 
 public class ScheduleParser {
     private final String url;
+    private final SiteFetcher fetcher;
 
     private final Map<String, Map<String, DaySchedule>> result = new LinkedHashMap<>();
 
@@ -38,23 +39,35 @@ public class ScheduleParser {
     private static final Pattern RE_PAIR_NUM = Pattern.compile("(\\d)\\s*пара");
     private static final Pattern RE_ROLES_CLEAN = Pattern.compile("(?:Зам\\.?|Пред\\.?|Чл\\.?|Секр\\.?|Преп\\.?)[\\wа-яА-Я-]*|\\s+|[,.;]", Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
 
-    public ScheduleParser(String url) {
+    public ScheduleParser(String url, SiteFetcher fetcher) {
         this.url = (url != null && !url.isEmpty()) ? url : "https://www.novkrp.ru/raspisanie.htm";
+        this.fetcher = fetcher;
     }
 
     public Map<String, Map<String, DaySchedule>> parse() {
-        long start = System.currentTimeMillis();
-        result.clear();
         try {
-            System.out.println("Connecting to " + url + "...");
-            Document doc = Jsoup.connect(this.url)
-                    .userAgent("Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/91.0")
-                    .timeout(15000)
-                    .get();
-            processTables(doc);
+            return parse(fetch());
         } catch (IOException e) {
             System.err.println("Parse error: " + e.getMessage());
+            result.clear();
+            return result;
         }
+    }
+
+    public SiteFetcher.Page fetch() throws IOException {
+        System.out.println("Connecting to " + url + "...");
+        return fetcher.fetch(url);
+    }
+
+    public String getFetcherStats() {
+        return fetcher.stats();
+    }
+
+    // Кодировку jsoup берёт из заголовка, а если её там нет — из meta самой страницы
+    public Map<String, Map<String, DaySchedule>> parse(SiteFetcher.Page page) throws IOException {
+        long start = System.currentTimeMillis();
+        result.clear();
+        processTables(Jsoup.parse(page.stream(), page.charset(), url));
         System.out.println("Schedule Parse took: " + (System.currentTimeMillis() - start) + "ms");
         return result;
     }
@@ -0,0 +1,4 @@
+package ru.artyomkad.nkrp.service;
+
+// Опубликованное поколение расписания: читатели берут ссылку один раз и работают только с ней
+public record ScheduleSnapshot(long generation, ScheduleIndex index) {}
@@ -5,99 +5,297 @@ import ru.artyomkad.nkrp.bot.VKCollegeBot;
 import ru.artyomkad.nkrp.model.DaySchedule;
 import ru.artyomkad.nkrp.model.Lesson;
 import ru.artyomkad.nkrp.model.Period;
+import ru.artyomkad.nkrp.model.ScheduleView;
 
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.TimerTask;
 import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class ScheduleUpdater implements AutoCloseable {
+    public enum CycleResult { CHANGED, UNCHANGED, FAILED }
+
+    private static final int QUEUE_CAPACITY = 64;
+
+    private record GroupDay(String groupName, String date, DaySchedule schedule) {}
+    private static final GroupDay END = new GroupDay(null, null, null);
+
+    @FunctionalInterface
+    private interface StageHandler {
+        void handle(GroupDay item, BlockingQueue<GroupDay> out) throws Exception;
+    }
+
+    // Состояние одного цикла; каждое поле пишет только свой этап
+    private static class Cycle {
+        final long startedAt = System.currentTimeMillis();
+        final Set<String> seenKeys = new HashSet<>();
+        final Set<String> affectedTeachers = new HashSet<>();
+        final Set<String> changedGroups = new HashSet<>();
+        int suppressed;
+        int committed;
+        // Выставляется этапом сохранения после последнего элемента
+        volatile boolean published;
+    }
 
-public class ScheduleUpdater extends TimerTask {
     private final ScheduleParser parser;
     private final BellParser bellParser;
     private final DatabaseService dbService;
     private final TelegramBot tgBot;
     private final VKCollegeBot vkBot;
+    private final ChangeDebouncer debouncer;
+    // Последний разбор страницы дал данные; до этого 304 не повод пропускать цикл
+    private boolean lastParseOk = false;
+    // Изменения из циклов, чьё поколение не удалось опубликовать: о них сообщим после следующей удачной публикации.
+    // Трогает только поток, вызвавший runCycle.
+    private final Set<String> unannouncedGroups = new LinkedHashSet<>();
+    private final Set<String> unannouncedTeachers = new HashSet<>();
+    private final ReminderService reminders;
+
+    private final ExecutorService fetchStage = stageExecutor("update-fetch");
+    private final ExecutorService parseStage = stageExecutor("update-parse");
+    private final ExecutorService diffStage = stageExecutor("update-diff");
+    private final ExecutorService persistStage = stageExecutor("update-persist");
+
+    private final StageStats fetchStats = new StageStats("fetch");
+    private final StageStats parseStats = new StageStats("parse");
+    private final StageStats diffStats = new StageStats("diff");
+    private final StageStats persistStats = new StageStats("persist");
 
     public ScheduleUpdater(ScheduleParser parser, BellParser bellParser, DatabaseService dbService,
-                           TelegramBot tgBot, VKCollegeBot vkBot) {
+                           TelegramBot tgBot, VKCollegeBot vkBot, ReminderService reminders, long quietPeriodMs, long maxHoldMs) {
         this.parser = parser;
         this.bellParser = bellParser;
         this.dbService = dbService;
         this.tgBot = tgBot;
         this.vkBot = vkBot;
+        this.reminders = reminders;
+        this.debouncer = new ChangeDebouncer(quietPeriodMs, maxHoldMs);
     }
 
-    @Override
-    public void run() {
+    private static ExecutorService stageExecutor(String name) {
+        return Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, name);
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public void refreshBells() {
+        BellParser.BellsData bells = bellParser.parse();
+        dbService.updateBells(bells);
+    }
+
+    public CycleResult runCycle() {
         System.out.println("Checking for updates (" + new Date() + ")...");
+        for (StageStats stats : List.of(fetchStats, parseStats, diffStats, persistStats)) stats.reset();
+        Cycle cycle = new Cycle();
+
         try {
-            BellParser.BellsData bells = bellParser.parse();
-            dbService.updateBells(bells);
+            SiteFetcher.Page page = fetchStage.submit(() -> {
+                long start = System.nanoTime();
+                try {
+                    return parser.fetch();
+                } finally {
+                    fetchStats.record(System.nanoTime() - start);
+                }
+            }).get();
+            // Страница не менялась, прошлый разбор удался и отложенных изменений нет — разбирать и сравнивать нечего
+            if (page.notModified() && lastParseOk && debouncer.pendingCount() == 0) {
+                System.out.println("Schedule page not modified, " + fetchStats);
+                return CycleResult.UNCHANGED;
+            }
 
-            Map<String, Map<String, DaySchedule>> newData = parser.parse();
-            if (newData.isEmpty()) return;
+            BlockingQueue<GroupDay> toDiff = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+            BlockingQueue<GroupDay> toPersist = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
 
-            Set<String> affectedTeachers = new HashSet<>();
+            Future<Integer> parsed = parseStage.submit(() -> parseStage(page, toDiff));
+            Future<?> diffed = diffStage.submit(() -> runStage(toDiff, toPersist, diffStats, (item, out) -> diff(cycle, item, out), null));
+            Future<?> persisted = persistStage.submit(() -> runStage(toPersist, null, persistStats, (item, _) -> persist(cycle, item),
+                    () -> cycle.published = dbService.publishGeneration()));
 
-            for (Map.Entry<String, Map<String, DaySchedule>> groupEntry : newData.entrySet()) {
-                String groupName = groupEntry.getKey();
-                for (Map.Entry<String, DaySchedule> dateEntry : groupEntry.getValue().entrySet()) {
-                    String date = dateEntry.getKey();
-                    DaySchedule newSchedule = dateEntry.getValue();
+            int groupDays = parsed.get();
+            diffed.get();
+            persisted.get();
+            // Рассылка идёт после публикации поколения, а не параллельно с сохранением: так подписчик получает
+            // ровно то расписание, которое бот отдаст по запросу. Перекрытие рассылки с сохранением ради этого убрано.
+            announce(cycle);
+            // Неопубликованное поколение тоже повод не пропускать следующий цикл: публикация будет повторена
+            lastParseOk = groupDays > 0 && cycle.published;
+            if (groupDays == 0) return CycleResult.FAILED;
 
-                    String newSignature = generateSignature(newSchedule);
-                    String oldSignature = dbService.getGroupScheduleSignature(groupName, date);
+            debouncer.retainOnly(cycle.seenKeys);
+            int pending = debouncer.pendingCount();
+            System.out.println("Update check finished in " + (System.currentTimeMillis() - cycle.startedAt) + "ms. Pending: " + pending + ", suppressed: " + cycle.suppressed);
+            for (StageStats stats : List.of(fetchStats, parseStats, diffStats, persistStats)) {
+                System.out.println("  " + stats);
+            }
+            System.out.println("  " + parser.getFetcherStats());
+            return (cycle.committed > 0 || pending > 0) ? CycleResult.CHANGED : CycleResult.UNCHANGED;
+        } catch (Exception e) {
+            lastParseOk = false;
+            // Сайт недоступен — бот продолжает отвечать по сохранённому расписанию
+            if (e.getCause() instanceof CircuitBreaker.OpenException open) System.err.println("Update check skipped: " + open.getMessage());
+            else e.printStackTrace();
+            return CycleResult.FAILED;
+        }
+    }
 
-                    if (!newSignature.equals(oldSignature)) {
-                        System.out.println("Change detected for group: " + groupName + " on " + date);
-                        dbService.saveSingleGroupSchedule(groupName, date, newSchedule);
+    private int parseStage(SiteFetcher.Page page, BlockingQueue<GroupDay> out) throws InterruptedException {
+        int count = 0;
+        try {
+            long start = System.nanoTime();
+            Map<String, Map<String, DaySchedule>> newData = parser.parse(page);
+            parseStats.record(System.nanoTime() - start);
 
-                        notifyGroupSubscribers(groupName);
-                        collectTeachers(newSchedule, affectedTeachers);
-                    }
+            for (Map.Entry<String, Map<String, DaySchedule>> groupEntry : newData.entrySet()) {
+                for (Map.Entry<String, DaySchedule> dateEntry : groupEntry.getValue().entrySet()) {
+                    out.put(new GroupDay(groupEntry.getKey(), dateEntry.getKey(), dateEntry.getValue()));
+                    count++;
                 }
             }
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+        } finally {
+            out.put(END);
+        }
+        return count;
+    }
 
-            for (String teacherName : affectedTeachers) {
-                notifyTeacherSubscribers(teacherName);
+    // Ошибка на одном элементе не останавливает этап, а END всегда уходит дальше
+    private Void runStage(BlockingQueue<GroupDay> in, BlockingQueue<GroupDay> out, StageStats stats, StageHandler handler, Runnable onEnd) throws InterruptedException {
+        try {
+            while (true) {
+                GroupDay item = in.take();
+                if (item == END) break;
+                long start = System.nanoTime();
+                try {
+                    handler.handle(item, out);
+                } catch (InterruptedException e) {
+                    throw e;
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+                stats.record(System.nanoTime() - start);
             }
-            System.out.println("Update check finished.");
-        } catch (Exception e) {
-            e.printStackTrace();
+        } finally {
+            if (onEnd != null) {
+                try {
+                    onEnd.run();
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                }
+            }
+            if (out != null) out.put(END);
         }
+        return null;
     }
 
-    private void notifyGroupSubscribers(String groupName) {
-        List<DatabaseService.Subscriber> subscribers = dbService.getSubscribers(groupName, 0);
-        if (subscribers.isEmpty()) return;
+    private void diff(Cycle cycle, GroupDay item, BlockingQueue<GroupDay> out) throws InterruptedException {
+        String key = ChangeDebouncer.key(item.groupName(), item.date());
+        cycle.seenKeys.add(key);
+        String newSignature = generateSignature(item.schedule());
 
-        String messageText = "\uD83D\uDCE2️ <b>ОБНОВЛЕНИЕ РАСПИСАНИЯ!</b>\n\n" + dbService.getScheduleByGroup(groupName);
+        switch (debouncer.offer(key, newSignature, () -> dbService.getGroupScheduleSignature(item.groupName(), item.date()), cycle.startedAt)) {
+            case COMMIT -> out.put(item);
+            case FLAP_SUPPRESSED -> {
+                System.out.println("Change reverted before publishing for group: " + item.groupName() + " on " + item.date());
+                cycle.suppressed++;
+            }
+            default -> {}
+        }
+    }
 
-        for (DatabaseService.Subscriber sub : subscribers) {
-            sendToSubscriber(sub, messageText);
-            try { Thread.sleep(50); } catch (InterruptedException ignored) {}
+    private void persist(Cycle cycle, GroupDay item) {
+        System.out.println("Change detected for group: " + item.groupName() + " on " + item.date());
+        if (!dbService.saveSingleGroupSchedule(item.groupName(), item.date(), item.schedule())) {
+            // Изменение остаётся в debouncer и будет сохранено следующим циклом; подписчиков не трогаем
+            System.err.println("Failed to save schedule for group: " + item.groupName() + " on " + item.date() + ", will retry");
+            return;
         }
+        debouncer.confirm(ChangeDebouncer.key(item.groupName(), item.date()), generateSignature(item.schedule()));
+        cycle.committed++;
+        collectChange(cycle, item);
     }
 
-    private void notifyTeacherSubscribers(String teacherName) {
-        List<DatabaseService.Subscriber> subscribers = dbService.getSubscribers(teacherName, 1);
-        if (subscribers.isEmpty()) return;
+    // Несколько изменившихся дат одной группы — одно уведомление с актуальным расписанием
+    private void collectChange(Cycle cycle, GroupDay item) {
+        cycle.changedGroups.add(item.groupName());
+        collectTeachers(item.schedule(), cycle.affectedTeachers);
+    }
 
-        String messageText = "\uD83D\uDCE2️ <b>Расписание обновилось!</b>\n\n" + dbService.getScheduleByTeacher(teacherName);
+    // Рассылка только по опубликованному поколению: подписчик, открывший расписание после уведомления, видит то же самое
+    private void announce(Cycle cycle) {
+        unannouncedGroups.addAll(cycle.changedGroups);
+        unannouncedTeachers.addAll(cycle.affectedTeachers);
+        if (!cycle.published) {
+            if (!unannouncedGroups.isEmpty()) System.err.println("Generation not published, postponing notifications for " + unannouncedGroups.size() + " groups");
+            return;
+        }
+        if (unannouncedGroups.isEmpty() && unannouncedTeachers.isEmpty()) return;
+
+        Set<String> groups = Set.copyOf(unannouncedGroups);
+        Set<String> teachers = Set.copyOf(unannouncedTeachers);
+        unannouncedGroups.clear();
+        unannouncedTeachers.clear();
 
-        for (DatabaseService.Subscriber sub : subscribers) {
-            sendToSubscriber(sub, messageText);
-            try { Thread.sleep(50); } catch (InterruptedException ignored) {}
+        long start = System.nanoTime();
+        Map<ScheduleView, List<DatabaseService.Subscriber>> messages = new LinkedHashMap<>();
+        for (String group : groups) {
+            List<DatabaseService.Subscriber> subscribers = dbService.getSubscribers(group, 0);
+            if (!subscribers.isEmpty()) messages.put(groupMessage(group), subscribers);
+        }
+        for (Map.Entry<String, List<DatabaseService.Subscriber>> entry : dbService.getTeacherSubscribers(teachers).entrySet()) {
+            if (!entry.getValue().isEmpty()) messages.put(teacherMessage(entry.getKey()), entry.getValue());
         }
+        // Разные тексты VK уходят общими execute
+        fanOut(messages);
+        System.out.printf("  notify: %d messages in %.1f ms%n", messages.size(), (System.nanoTime() - start) / 1e6);
+        reminders.onScheduleChanged(groups, teachers);
     }
 
-    private void sendToSubscriber(DatabaseService.Subscriber sub, String text) {
-        switch (sub.getPlatform()) {
-            case Telegram -> tgBot.sendMessageHTML(sub.chatId(), sub.messageThreadId(), text);
-            case VKontakte -> vkBot.sendMessage(sub.chatId(), text);
+    private ScheduleView groupMessage(String groupName) {
+        return ScheduleView.builder()
+                .text("\uD83D\uDCE2️ ").bold("ОБНОВЛЕНИЕ РАСПИСАНИЯ!").text("\n\n")
+                .append(dbService.getScheduleByGroup(groupName))
+                .build();
+    }
+
+    private ScheduleView teacherMessage(String teacherName) {
+        return ScheduleView.builder()
+                .text("\uD83D\uDCE2️ ").bold("Расписание обновилось!").text("\n\n")
+                .append(dbService.getScheduleByTeacher(teacherName))
+                .build();
+    }
+
+    // VK — пачками через peer_ids/execute, Telegram — по одному сообщению с паузой
+    private void fanOut(Map<ScheduleView, List<DatabaseService.Subscriber>> messages) {
+        Map<ScheduleView, List<Long>> vkPeers = new LinkedHashMap<>();
+        for (Map.Entry<ScheduleView, List<DatabaseService.Subscriber>> entry : messages.entrySet()) {
+            for (DatabaseService.Subscriber sub : entry.getValue()) {
+                if (sub.getPlatform() == DatabaseService.Platform.VKontakte) {
+                    vkPeers.computeIfAbsent(entry.getKey(), _ -> new ArrayList<>()).add(sub.chatId());
+                }
+            }
+        }
+        if (!vkPeers.isEmpty()) vkBot.sendViews(vkPeers);
+
+        for (Map.Entry<ScheduleView, List<DatabaseService.Subscriber>> entry : messages.entrySet()) {
+            for (DatabaseService.Subscriber sub : entry.getValue()) {
+                if (sub.getPlatform() != DatabaseService.Platform.Telegram) continue;
+                tgBot.sendView(sub.chatId(), sub.messageThreadId(), entry.getKey());
+                try { Thread.sleep(50); } catch (InterruptedException ignored) {}
+            }
         }
     }
 
@@ -119,4 +317,11 @@ public class ScheduleUpdater extends TimerTask {
             }
         }
     }
+
+    @Override
+    public void close() {
+        for (ExecutorService stage : List.of(fetchStage, parseStage, diffStage, persistStage)) {
+            stage.shutdownNow();
+        }
+    }
 }
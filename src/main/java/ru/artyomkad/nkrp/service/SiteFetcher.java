@@ -0,0 +1,146 @@
+package ru.artyomkad.nkrp.service;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+// Общий HTTP-клиент для всех ресурсов сайта колледжа: расписание, звонки, меню столовой.
+// Один HttpClient держит соединения к хосту открытыми (HTTP/2, если сервер умеет, иначе keep-alive 1.1),
+// тело просится сжатым, а для каждого адреса помнятся ETag/Last-Modified и последнее тело — на 304 отдаётся оно.
+// На каждый хост свой CircuitBreaker: пока сайт лежит, запросы не ждут таймаута, а сразу падают,
+// и вызывающие продолжают отдавать то, что уже сохранено.
+public class SiteFetcher {
+    private static final String USER_AGENT = "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/91.0";
+
+    public record Settings(Duration connectTimeout, Duration requestTimeout,
+                           int breakerFailures, long breakerOpenMs, long breakerMaxOpenMs) {}
+
+    // body — уже распакованное тело; charset — из Content-Type, null если сервер его не указал
+    public record Page(String url, byte[] body, String charset, boolean notModified) {
+        public InputStream stream() {
+            return new ByteArrayInputStream(body);
+        }
+    }
+
+    private record Cached(String etag, String lastModified, byte[] body, String charset) {}
+
+    private final Settings settings;
+    private final HttpClient client;
+    private final Map<String, Cached> cache = new ConcurrentHashMap<>();
+    private final Map<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+
+    private final LatencyRecorder latency = new LatencyRecorder("site fetch", 256);
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong notModified = new AtomicLong();
+    private final AtomicLong wireBytes = new AtomicLong();
+    private final AtomicLong bodyBytes = new AtomicLong();
+
+    public SiteFetcher(Settings settings) {
+        this.settings = settings;
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(settings.connectTimeout())
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .build();
+    }
+
+    public Page fetch(String url) throws IOException {
+        Cached cached = cache.get(url);
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(url))
+                .timeout(settings.requestTimeout())
+                .header("User-Agent", USER_AGENT)
+                // brotli в JDK нет, а без декодера его просить нельзя
+                .header("Accept-Encoding", "gzip, deflate")
+                .GET();
+        if (cached != null) {
+            if (cached.etag() != null) request.header("If-None-Match", cached.etag());
+            if (cached.lastModified() != null) request.header("If-Modified-Since", cached.lastModified());
+        }
+
+        HttpRequest built = request.build();
+        CircuitBreaker breaker = breakers.computeIfAbsent(built.uri().getHost(), host -> new CircuitBreaker(
+                host, settings.breakerFailures(), settings.breakerOpenMs(), settings.breakerMaxOpenMs()));
+        breaker.acquire();
+
+        long start = System.nanoTime();
+        HttpResponse<byte[]> response;
+        try {
+            response = client.send(built, HttpResponse.BodyHandlers.ofByteArray());
+        } catch (IOException | RuntimeException e) {
+            breaker.onFailure();
+            throw e;
+        } catch (InterruptedException e) {
+            breaker.onFailure();
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while fetching " + url, e);
+        } finally {
+            latency.record(System.nanoTime() - start);
+            requests.incrementAndGet();
+        }
+        // 4xx — ответ живого сервера, на предохранитель он не влияет
+        if (response.statusCode() >= 500) breaker.onFailure();
+        else breaker.onSuccess();
+
+        if (response.statusCode() == 304 && cached != null) {
+            notModified.incrementAndGet();
+            return new Page(url, cached.body(), cached.charset(), true);
+        }
+        if (response.statusCode() != 200) throw new IOException("HTTP " + response.statusCode() + " for " + url);
+
+        byte[] raw = response.body();
+        byte[] body = decode(raw, response.headers().firstValue("Content-Encoding").orElse(""));
+        wireBytes.addAndGet(raw.length);
+        bodyBytes.addAndGet(body.length);
+
+        String charset = response.headers().firstValue("Content-Type").map(SiteFetcher::charsetOf).orElse(null);
+        String etag = response.headers().firstValue("ETag").orElse(null);
+        String lastModified = response.headers().firstValue("Last-Modified").orElse(null);
+        if (etag != null || lastModified != null) cache.put(url, new Cached(etag, lastModified, body, charset));
+        else cache.remove(url);
+        return new Page(url, body, charset, false);
+    }
+
+    public String stats() {
+        long wire = wireBytes.get();
+        long decoded = bodyBytes.get();
+        return String.format("%s; %d not modified of %d, %d KB received for %d KB of content; circuits: %s",
+                latency, notModified.get(), requests.get(), wire / 1024, decoded / 1024, breakers.values());
+    }
+
+    private static byte[] decode(byte[] raw, String encoding) throws IOException {
+        return switch (encoding.trim().toLowerCase()) {
+            case "gzip", "x-gzip" -> {
+                try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(raw))) {
+                    yield in.readAllBytes();
+                }
+            }
+            case "deflate" -> {
+                try (InputStream in = new InflaterInputStream(new ByteArrayInputStream(raw))) {
+                    yield in.readAllBytes();
+                }
+            }
+            default -> raw;
+        };
+    }
+
+    private static String charsetOf(String contentType) {
+        for (String part : contentType.split(";")) {
+            String param = part.trim();
+            if (param.regionMatches(true, 0, "charset=", 0, 8)) {
+                String value = param.substring(8).replace("\"", "").trim();
+                return value.isEmpty() ? null : value;
+            }
+        }
+        return null;
+    }
+}
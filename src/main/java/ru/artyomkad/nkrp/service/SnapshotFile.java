@@ -0,0 +1,237 @@
+package ru.artyomkad.nkrp.service;
+
+import ru.artyomkad.nkrp.model.ScheduleView;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+// Снимок опубликованного поколения на диске: индекс, звонки и горячие ответы кэша.
+// При старте читается одним чтением файла вместо прохода по таблицам SQLite.
+// Строки (группы, преподаватели, предметы) пишутся один раз в таблицу, дальше — номерами.
+// Формат: MAGIC, VERSION, длина и CRC32 тела, таблица строк, тело.
+final class SnapshotFile {
+    private static final int MAGIC = 0x4E4B5250; // "NKRP"
+    private static final int VERSION = 1;
+
+    record Contents(long generation, BellParser.BellsData bells, ScheduleIndex index, List<ResponseCache.Saved> responses) {}
+
+    private SnapshotFile() {}
+
+    // Пишется во временный файл и переименовывается: читатель видит либо старый снимок, либо новый целиком
+    static void write(Path path, Contents contents) throws IOException {
+        Map<String, Integer> strings = new LinkedHashMap<>();
+        ByteArrayOutputStream bodyBytes = new ByteArrayOutputStream(64 * 1024);
+        DataOutputStream body = new DataOutputStream(bodyBytes);
+
+        body.writeLong(contents.generation());
+        writeBells(body, strings, contents.bells().normal);
+        writeBells(body, strings, contents.bells().monday);
+
+        List<ScheduleIndex.GroupDay> groupDays = contents.index().getGroupDays();
+        writeVarInt(body, groupDays.size());
+        for (ScheduleIndex.GroupDay gd : groupDays) {
+            writeString(body, strings, gd.group());
+            writeString(body, strings, gd.date());
+            body.writeBoolean(gd.monday());
+            body.writeLong(gd.seq());
+            writeVarInt(body, gd.lessons().size());
+            for (ScheduleIndex.LessonEntry lesson : gd.lessons()) {
+                writeVarInt(body, lesson.pair());
+                writeString(body, strings, lesson.subject());
+                writeString(body, strings, lesson.startTime());
+                writeString(body, strings, lesson.raw());
+                writeStrings(body, strings, lesson.teachers());
+                writeVarInt(body, lesson.rooms().size());
+                for (Integer room : lesson.rooms()) body.writeInt(room);
+                writeStrings(body, strings, lesson.labels());
+            }
+        }
+
+        writeVarInt(body, contents.responses().size());
+        for (ResponseCache.Saved saved : contents.responses()) {
+            body.writeByte(saved.key().kind().ordinal());
+            writeString(body, strings, saved.key().target());
+            writeString(body, strings, saved.key().date());
+            writeStrings(body, strings, saved.dateTokens());
+            writeString(body, strings, saved.view().getDate());
+            writeVarInt(body, saved.view().getSpans().size());
+            for (ScheduleView.Span span : saved.view().getSpans()) {
+                body.writeByte(span.style().ordinal());
+                writeString(body, strings, span.text());
+            }
+        }
+        body.flush();
+
+        ByteArrayOutputStream payloadBytes = new ByteArrayOutputStream(bodyBytes.size() + 64 * 1024);
+        DataOutputStream payload = new DataOutputStream(payloadBytes);
+        writeVarInt(payload, strings.size());
+        for (String s : strings.keySet()) {
+            byte[] utf8 = s.getBytes(StandardCharsets.UTF_8);
+            writeVarInt(payload, utf8.length);
+            payload.write(utf8);
+        }
+        bodyBytes.writeTo(payload);
+        payload.flush();
+
+        byte[] data = payloadBytes.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(data);
+
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(tmp))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(data.length);
+            out.writeLong(crc.getValue());
+            out.write(data);
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // null — снимка нет, он от другой версии формата или повреждён
+    static Contents read(Path path) throws IOException {
+        if (!Files.isRegularFile(path)) return null;
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(Files.readAllBytes(path)));
+        if (in.readInt() != MAGIC || in.readInt() != VERSION) return null;
+        byte[] data = new byte[in.readInt()];
+        long expectedCrc = in.readLong();
+        in.readFully(data);
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        if (crc.getValue() != expectedCrc) return null;
+
+        in = new DataInputStream(new ByteArrayInputStream(data));
+        // Номер 0 зарезервирован под null
+        String[] strings = new String[readVarInt(in) + 1];
+        for (int i = 1; i < strings.length; i++) {
+            byte[] utf8 = new byte[readVarInt(in)];
+            in.readFully(utf8);
+            strings[i] = new String(utf8, StandardCharsets.UTF_8);
+        }
+
+        long generation = in.readLong();
+        BellParser.BellsData bells = new BellParser.BellsData();
+        readBells(in, strings, bells.normal);
+        readBells(in, strings, bells.monday);
+
+        int groupDayCount = readVarInt(in);
+        List<ScheduleIndex.GroupDay> groupDays = new ArrayList<>(groupDayCount);
+        for (int g = 0; g < groupDayCount; g++) {
+            String group = readString(in, strings);
+            String date = readString(in, strings);
+            boolean monday = in.readBoolean();
+            long seq = in.readLong();
+            int lessonCount = readVarInt(in);
+            List<ScheduleIndex.LessonEntry> lessons = new ArrayList<>(lessonCount);
+            for (int l = 0; l < lessonCount; l++) {
+                int pair = readVarInt(in);
+                String subject = readString(in, strings);
+                String startTime = readString(in, strings);
+                String raw = readString(in, strings);
+                List<String> teachers = readStrings(in, strings);
+                int roomCount = readVarInt(in);
+                List<Integer> rooms = new ArrayList<>(roomCount);
+                for (int r = 0; r < roomCount; r++) rooms.add(in.readInt());
+                List<String> labels = readStrings(in, strings);
+                lessons.add(new ScheduleIndex.LessonEntry(group, pair, subject, startTime, raw,
+                        teachers, List.copyOf(rooms), labels));
+            }
+            groupDays.add(new ScheduleIndex.GroupDay(group, date, monday, seq, List.copyOf(lessons)));
+        }
+
+        ResponseCache.Kind[] kinds = ResponseCache.Kind.values();
+        ScheduleView.Style[] styles = ScheduleView.Style.values();
+        int responseCount = readVarInt(in);
+        List<ResponseCache.Saved> responses = new ArrayList<>(responseCount);
+        for (int r = 0; r < responseCount; r++) {
+            ResponseCache.Kind kind = kinds[in.readUnsignedByte()];
+            String target = readString(in, strings);
+            String keyDate = readString(in, strings);
+            Set<String> tokens = new HashSet<>(readStrings(in, strings));
+            ScheduleView.Builder view = ScheduleView.builder().date(readString(in, strings));
+            int spanCount = readVarInt(in);
+            for (int s = 0; s < spanCount; s++) {
+                ScheduleView.Style style = styles[in.readUnsignedByte()];
+                String text = readString(in, strings);
+                switch (style) {
+                    case BOLD -> view.bold(text);
+                    case ITALIC -> view.italic(text);
+                    default -> view.text(text);
+                }
+            }
+            responses.add(new ResponseCache.Saved(new ResponseCache.Key(kind, target, keyDate), view.build(), tokens));
+        }
+
+        return new Contents(generation, bells, ScheduleIndex.build(groupDays), responses);
+    }
+
+    private static void writeBells(DataOutputStream out, Map<String, Integer> strings, Map<Integer, String> bells) throws IOException {
+        writeVarInt(out, bells.size());
+        for (Map.Entry<Integer, String> entry : bells.entrySet()) {
+            writeVarInt(out, entry.getKey());
+            writeString(out, strings, entry.getValue());
+        }
+    }
+
+    private static void readBells(DataInputStream in, String[] strings, Map<Integer, String> bells) throws IOException {
+        int count = readVarInt(in);
+        for (int i = 0; i < count; i++) {
+            int pair = readVarInt(in);
+            bells.put(pair, readString(in, strings));
+        }
+    }
+
+    private static void writeStrings(DataOutputStream out, Map<String, Integer> strings, Iterable<String> values) throws IOException {
+        List<String> list = new ArrayList<>();
+        values.forEach(list::add);
+        writeVarInt(out, list.size());
+        for (String value : list) writeString(out, strings, value);
+    }
+
+    private static List<String> readStrings(DataInputStream in, String[] strings) throws IOException {
+        int count = readVarInt(in);
+        List<String> result = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) result.add(readString(in, strings));
+        return List.copyOf(result);
+    }
+
+    private static void writeString(DataOutputStream out, Map<String, Integer> strings, String value) throws IOException {
+        writeVarInt(out, value == null ? 0 : strings.computeIfAbsent(value, _ -> strings.size() + 1));
+    }
+
+    private static String readString(DataInputStream in, String[] strings) throws IOException {
+        return strings[readVarInt(in)];
+    }
+
+    private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarInt(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IOException("Malformed varint in snapshot");
+    }
+}
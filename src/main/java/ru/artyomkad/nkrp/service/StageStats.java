@@ -0,0 +1,30 @@
+package ru.artyomkad.nkrp.service;
+
+public class StageStats {
+    private final String name;
+    private int items;
+    private long busyNanos;
+    private long maxNanos;
+
+    public StageStats(String name) {
+        this.name = name;
+    }
+
+    public synchronized void record(long nanos) {
+        items++;
+        busyNanos += nanos;
+        maxNanos = Math.max(maxNanos, nanos);
+    }
+
+    public synchronized void reset() {
+        items = 0;
+        busyNanos = 0;
+        maxNanos = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%s: %d items, busy %d ms, max %.1f ms",
+                name, items, busyNanos / 1_000_000, maxNanos / 1_000_000.0);
+    }
+}
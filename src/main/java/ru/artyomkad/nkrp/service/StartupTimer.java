@@ -0,0 +1,27 @@
+package ru.artyomkad.nkrp.service;
+
+import java.lang.management.ManagementFactory;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Время холодного старта: сколько прошло от запуска JVM до готовности и до первого ответа каждой платформы
+public final class StartupTimer {
+    private static final Set<String> answered = ConcurrentHashMap.newKeySet();
+
+    private StartupTimer() {}
+
+    public static long sinceJvmStartMs() {
+        return System.currentTimeMillis() - ManagementFactory.getRuntimeMXBean().getStartTime();
+    }
+
+    public static void ready(String what) {
+        System.out.println(what + " ready " + sinceJvmStartMs() + "ms after JVM start");
+    }
+
+    // handledNanos — обработка самого первого запроса, на холодных данных она самая долгая
+    public static void firstAnswer(String platform, long handledNanos) {
+        if (!answered.add(platform)) return;
+        System.out.printf("First %s answer handled in %.1f ms, %d ms after JVM start%n",
+                platform, handledNanos / 1e6, sinceJvmStartMs());
+    }
+}
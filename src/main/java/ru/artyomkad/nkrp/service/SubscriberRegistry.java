@@ -0,0 +1,98 @@
+package ru.artyomkad.nkrp.service;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+// Подписчики в памяти: у каждого чата/треда свой порядковый номер, у каждой цели — битсет номеров.
+// Получатели для набора целей — объединение битсетов, поэтому один чат не получит одно сообщение дважды.
+public class SubscriberRegistry {
+    private final List<DatabaseService.Subscriber> subscribers = new ArrayList<>();
+    private final Map<DatabaseService.Subscriber, Integer> ordinals = new HashMap<>();
+    private final Map<String, BitSet> groups = new HashMap<>();
+    private final Map<String, BitSet> teachers = new HashMap<>();
+
+    public synchronized void add(DatabaseService.Subscription subscription) {
+        int ordinal = ordinals.computeIfAbsent(subscription.subscriber(), sub -> {
+            subscribers.add(sub);
+            return subscribers.size() - 1;
+        });
+        targets(subscription.subType()).computeIfAbsent(subscription.subValue(), _ -> new BitSet()).set(ordinal);
+    }
+
+    public synchronized void remove(DatabaseService.Subscription subscription) {
+        Integer ordinal = ordinals.get(subscription.subscriber());
+        if (ordinal == null) return;
+        Map<String, BitSet> map = targets(subscription.subType());
+        BitSet bits = map.get(subscription.subValue());
+        if (bits == null) return;
+        bits.clear(ordinal);
+        if (bits.isEmpty()) map.remove(subscription.subValue());
+    }
+
+    public synchronized void removeAll(DatabaseService.Subscriber subscriber) {
+        Integer ordinal = ordinals.get(subscriber);
+        if (ordinal == null) return;
+        for (Map<String, BitSet> map : List.of(groups, teachers)) {
+            Iterator<BitSet> it = map.values().iterator();
+            while (it.hasNext()) {
+                BitSet bits = it.next();
+                bits.clear(ordinal);
+                if (bits.isEmpty()) it.remove();
+            }
+        }
+    }
+
+    public synchronized BitSet groupSubscribers(Collection<String> groupNames) {
+        BitSet result = new BitSet();
+        for (String group : groupNames) {
+            BitSet bits = groups.get(group);
+            if (bits != null) result.or(bits);
+        }
+        return result;
+    }
+
+    // Подписка на преподавателя срабатывает, если её значение — префикс имени (как LIKE sub_value || '%')
+    public synchronized BitSet teacherSubscribers(String teacherName) {
+        BitSet result = new BitSet();
+        for (int i = 1; i <= teacherName.length(); i++) {
+            BitSet bits = teachers.get(teacherName.substring(0, i));
+            if (bits != null) result.or(bits);
+        }
+        return result;
+    }
+
+    // Значения подписок, задетые изменившимися преподавателями, и их подписчики
+    public synchronized Map<String, BitSet> teacherTargets(Collection<String> teacherNames) {
+        Map<String, BitSet> result = new HashMap<>();
+        for (String name : teacherNames) {
+            for (int i = 1; i <= name.length(); i++) {
+                String prefix = name.substring(0, i);
+                BitSet bits = teachers.get(prefix);
+                if (bits != null) result.putIfAbsent(prefix, (BitSet) bits.clone());
+            }
+        }
+        return result;
+    }
+
+    public synchronized BitSet all() {
+        BitSet result = new BitSet();
+        for (BitSet bits : groups.values()) result.or(bits);
+        for (BitSet bits : teachers.values()) result.or(bits);
+        return result;
+    }
+
+    public synchronized List<DatabaseService.Subscriber> resolve(BitSet bits) {
+        List<DatabaseService.Subscriber> result = new ArrayList<>(bits.cardinality());
+        for (int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i + 1)) result.add(subscribers.get(i));
+        return result;
+    }
+
+    private Map<String, BitSet> targets(int type) {
+        return type == 1 ? teachers : groups;
+    }
+}
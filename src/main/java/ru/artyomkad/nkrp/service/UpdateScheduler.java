@@ -0,0 +1,114 @@
+package ru.artyomkad.nkrp.service;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class UpdateScheduler implements AutoCloseable {
+
+    public record Settings(long fastIntervalMs,
+                           long baseIntervalMs,
+                           long maxIntervalMs,
+                           long recentChangeWindowMs,
+                           int fastFromHour,
+                           int fastToHour,
+                           double jitter,
+                           long bellRefreshMs,
+                           ZoneId zone) {}
+
+    private final ScheduleUpdater updater;
+    private final Settings settings;
+    // Два потока: опрос сайта и обновление звонков не ждут друг друга
+    private final AtomicInteger threadNumber = new AtomicInteger();
+    private final ScheduledExecutorService executor = Executors.newScheduledThreadPool(2, r -> {
+        Thread t = new Thread(r, "schedule-updater-" + threadNumber.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+    });
+
+    private long lastChangeAt = 0;
+    private int idleStreak = 0;
+    private int errorStreak = 0;
+
+    public UpdateScheduler(ScheduleUpdater updater, Settings settings) {
+        this.updater = updater;
+        this.settings = settings;
+    }
+
+    public void start() {
+        executor.schedule(this::cycle, 0, TimeUnit.MILLISECONDS);
+        executor.scheduleWithFixedDelay(() -> {
+            try {
+                updater.refreshBells();
+            } catch (Throwable t) {
+                t.printStackTrace();
+            }
+        }, 0, settings.bellRefreshMs(), TimeUnit.MILLISECONDS);
+    }
+
+    private void cycle() {
+        ScheduleUpdater.CycleResult result;
+        try {
+            result = updater.runCycle();
+        } catch (Throwable t) {
+            t.printStackTrace();
+            result = ScheduleUpdater.CycleResult.FAILED;
+        }
+
+        long delay = withJitter(nextDelay(result, System.currentTimeMillis()));
+        System.out.println("Next update check in " + (delay / 1000) + "s (" + result + ")");
+        if (!executor.isShutdown()) {
+            executor.schedule(this::cycle, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private long nextDelay(ScheduleUpdater.CycleResult result, long now) {
+        if (result == ScheduleUpdater.CycleResult.FAILED) {
+            errorStreak++;
+            return backoff(errorStreak);
+        }
+        errorStreak = 0;
+
+        if (result == ScheduleUpdater.CycleResult.CHANGED) {
+            lastChangeAt = now;
+            idleStreak = 0;
+        } else {
+            idleStreak++;
+        }
+
+        if (now - lastChangeAt < settings.recentChangeWindowMs() || isFastHour(now)) {
+            return settings.fastIntervalMs();
+        }
+        return backoff(idleStreak);
+    }
+
+    private long backoff(int streak) {
+        int shift = Math.min(Math.max(streak - 1, 0), 16);
+        return Math.min(settings.maxIntervalMs(), settings.baseIntervalMs() << shift);
+    }
+
+    private boolean isFastHour(long now) {
+        int hour = Instant.ofEpochMilli(now).atZone(settings.zone()).getHour();
+        int from = settings.fastFromHour();
+        int to = settings.fastToHour();
+        // Окно может переходить через полночь, например 22-2
+        return from <= to ? (hour >= from && hour < to) : (hour >= from || hour < to);
+    }
+
+    private long withJitter(long delay) {
+        double j = settings.jitter();
+        if (j <= 0) return delay;
+        double factor = 1 + ThreadLocalRandom.current().nextDouble(-j, j);
+        return Math.max(1000, (long) (delay * factor));
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+        updater.close();
+    }
+}
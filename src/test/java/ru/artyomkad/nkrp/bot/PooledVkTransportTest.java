@@ -0,0 +1,163 @@
+package ru.artyomkad.nkrp.bot;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import com.vk.api.sdk.client.ClientResponse;
+import com.vk.api.sdk.httpclient.HttpTransportClient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import ru.artyomkad.nkrp.service.LatencyRecorder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PooledVkTransportTest {
+
+    private static final int SENDS = 2000;
+    private static final int SENDERS = 32;
+
+    // Поддельный API VK: messages.send отвечает номером сообщения, загрузка проверяет multipart с полем file
+    private HttpServer server;
+    private String base;
+    private final Map<String, String> lastForm = new ConcurrentHashMap<>();
+    private final AtomicInteger messageIds = new AtomicInteger();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+    private final Map<Integer, Boolean> remotePorts = new ConcurrentHashMap<>();
+    private volatile long sendDelayMs;
+
+    @BeforeEach
+    void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.createContext("/method/messages.send", this::messagesSend);
+        server.createContext("/upload", this::upload);
+        server.start();
+        base = "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.stop(0);
+    }
+
+    private void messagesSend(HttpExchange exchange) throws IOException {
+        maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+        try {
+            remotePorts.put(exchange.getRemoteAddress().getPort(), true);
+            String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+            for (String pair : body.split("&")) {
+                int eq = pair.indexOf('=');
+                if (eq > 0) lastForm.put(pair.substring(0, eq), pair.substring(eq + 1));
+            }
+            if (sendDelayMs > 0) Thread.sleep(sendDelayMs);
+            reply(exchange, "{\"response\":" + messageIds.incrementAndGet() + "}");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    private void upload(HttpExchange exchange) throws IOException {
+        String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+        String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.ISO_8859_1);
+        boolean multipart = contentType != null && contentType.startsWith("multipart/form-data; boundary=");
+        boolean hasFile = body.contains("name=\"file\"; filename=\"schedule.pdf\"") && body.contains("%PDF-fake");
+        reply(exchange, multipart && hasFile ? "{\"file\":\"doc-ok\"}" : "{\"error\":\"bad upload\"}");
+    }
+
+    private static void reply(HttpExchange exchange, String json) throws IOException {
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(200, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static PooledVkTransport pooled(int perHostLimit) {
+        return new PooledVkTransport(new PooledVkTransport.Settings(perHostLimit, Duration.ofSeconds(5), Duration.ofSeconds(35)));
+    }
+
+    @Test
+    void postsFormToMessagesSend() throws Exception {
+        ClientResponse response = pooled(8).post(base + "/method/messages.send", "peer_id=2000000001&message=%D0%BF%D0%B0%D1%80%D0%B0&random_id=7");
+
+        assertEquals(200, response.getStatusCode());
+        assertEquals("{\"response\":1}", response.getContent());
+        assertEquals("2000000001", lastForm.get("peer_id"));
+        assertEquals("%D0%BF%D0%B0%D1%80%D0%B0", lastForm.get("message"));
+    }
+
+    @Test
+    void uploadsDocumentAsMultipart() throws Exception {
+        File file = Files.createTempDirectory("nkrp").resolve("schedule.pdf").toFile();
+        Files.writeString(file.toPath(), "%PDF-fake");
+        try {
+            ClientResponse response = pooled(8).post(base + "/upload", "file", file);
+            assertEquals("{\"file\":\"doc-ok\"}", response.getContent());
+        } finally {
+            Files.deleteIfExists(file.toPath());
+        }
+    }
+
+    @Test
+    void reusesConnectionsAndRespectsPerHostLimit() throws Exception {
+        sendDelayMs = 5;
+        run(pooled(4), "pooled, limit 4", 400);
+
+        assertTrue(maxInFlight.get() <= 4, "more than 4 concurrent requests: " + maxInFlight.get());
+        assertTrue(remotePorts.size() <= 4, "connections were not reused: " + remotePorts.size());
+    }
+
+    // Замер из запроса: пропускная способность и p99 messages.send у пула и у транспорта SDK по умолчанию
+    @Test
+    void measuresSendThroughputAgainstDefaultTransport() throws Exception {
+        System.out.println(run(pooled(SENDERS), "pooled transport", SENDS));
+        System.out.println(run(HttpTransportClient.getInstance(), "default SDK transport", SENDS));
+        assertEquals(2 * SENDS, messageIds.get());
+    }
+
+    private String run(HttpTransportClient transport, String name, int sends) throws Exception {
+        // Прогрев: установка соединений и JIT не должны попасть в замер
+        for (int i = 0; i < SENDERS; i++) transport.post(base + "/method/messages.send", "peer_id=1&message=warmup");
+        messageIds.addAndGet(-SENDERS);
+
+        LatencyRecorder latency = new LatencyRecorder(name, sends);
+        long start = System.nanoTime();
+        try (ExecutorService senders = Executors.newFixedThreadPool(SENDERS)) {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < sends; i++) {
+                String body = "peer_id=" + (i % 100) + "&message=test&random_id=" + i;
+                futures.add(senders.submit(() -> {
+                    long sent = System.nanoTime();
+                    ClientResponse response = transport.post(base + "/method/messages.send", body);
+                    latency.record(System.nanoTime() - sent);
+                    assertEquals(200, response.getStatusCode());
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) future.get();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        return String.format("%s; wall clock %.0f sends/s", latency, sends / seconds);
+    }
+}
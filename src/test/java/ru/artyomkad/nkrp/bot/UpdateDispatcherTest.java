@@ -0,0 +1,118 @@
+package ru.artyomkad.nkrp.bot;
+
+import org.junit.jupiter.api.Test;
+import ru.artyomkad.nkrp.service.DatabaseService.Platform;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class UpdateDispatcherTest {
+
+    // Поддельный API бота: запоминает, в каком порядке чату «ушли» ответы, и сколько обработчиков работало одновременно
+    private static final class FakeBotApi {
+        final Map<Long, List<Integer>> sent = new ConcurrentHashMap<>();
+        final Map<Long, AtomicInteger> inFlightPerChat = new ConcurrentHashMap<>();
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+        final AtomicInteger overlapsInChat = new AtomicInteger();
+
+        void handle(long chatId, int seq) {
+            AtomicInteger chat = inFlightPerChat.computeIfAbsent(chatId, _ -> new AtomicInteger());
+            if (chat.incrementAndGet() > 1) overlapsInChat.incrementAndGet();
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(ThreadLocalRandom.current().nextInt(0, 3));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            sent.computeIfAbsent(chatId, _ -> Collections.synchronizedList(new ArrayList<>())).add(seq);
+            inFlight.decrementAndGet();
+            chat.decrementAndGet();
+        }
+    }
+
+    @Test
+    void keepsPerChatOrderAndRunsChatsConcurrently() throws Exception {
+        FakeBotApi api = new FakeBotApi();
+        int chats = 50;
+        int messagesPerChat = 40;
+        CountDownLatch done = new CountDownLatch(chats * messagesPerChat);
+
+        try (UpdateDispatcher dispatcher = new UpdateDispatcher()) {
+            for (int seq = 0; seq < messagesPerChat; seq++) {
+                for (long chatId = 1; chatId <= chats; chatId++) {
+                    long chat = chatId;
+                    int s = seq;
+                    Platform platform = chatId % 2 == 0 ? Platform.Telegram : Platform.VKontakte;
+                    dispatcher.dispatch(platform, chat, () -> {
+                        api.handle(chat, s);
+                        done.countDown();
+                    });
+                }
+            }
+            assertTrue(done.await(30, TimeUnit.SECONDS), "not all messages were handled");
+        }
+
+        assertEquals(0, api.overlapsInChat.get(), "two messages of one chat were handled at the same time");
+        assertTrue(api.maxInFlight.get() > 1, "chats were handled one after another");
+        for (long chatId = 1; chatId <= chats; chatId++) {
+            List<Integer> expected = new ArrayList<>();
+            for (int seq = 0; seq < messagesPerChat; seq++) expected.add(seq);
+            assertEquals(expected, api.sent.get(chatId), "order broken in chat " + chatId);
+        }
+    }
+
+    @Test
+    void failedTaskDoesNotDropLaterMessagesOfTheChat() throws Exception {
+        List<String> handled = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(1);
+
+        try (UpdateDispatcher dispatcher = new UpdateDispatcher()) {
+            // Первая задача держит цепочку, пока за ней не встанут остальные
+            dispatcher.dispatch(Platform.Telegram, 7, () -> {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                handled.add("first");
+            });
+            dispatcher.dispatch(Platform.Telegram, 7, () -> {
+                throw new AssertionError("handler failed");
+            });
+            dispatcher.dispatch(Platform.Telegram, 7, () -> {
+                throw new IllegalStateException("handler failed");
+            });
+            dispatcher.dispatch(Platform.Telegram, 7, () -> {
+                handled.add("after failures");
+                done.countDown();
+            });
+            release.countDown();
+            assertTrue(done.await(10, TimeUnit.SECONDS), "message after a failed handler was dropped");
+        }
+        assertEquals(List.of("first", "after failures"), handled);
+    }
+
+    @Test
+    void forgetsIdleChats() throws Exception {
+        CountDownLatch done = new CountDownLatch(10);
+        try (UpdateDispatcher dispatcher = new UpdateDispatcher()) {
+            for (long chatId = 0; chatId < 10; chatId++) dispatcher.dispatch(Platform.VKontakte, chatId, done::countDown);
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+            long deadline = System.currentTimeMillis() + 5000;
+            while (dispatcher.activeChats() > 0 && System.currentTimeMillis() < deadline) Thread.sleep(10);
+            assertEquals(0, dispatcher.activeChats());
+        }
+    }
+}